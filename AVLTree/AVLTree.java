@@ -1,15 +1,64 @@
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableSet;
 import java.util.NoSuchElementException;
+import java.util.SortedSet;
 
-public class AVLTree<E extends Comparable> implements BinaryTree<E>{
+public class AVLTree<E extends Comparable> extends AbstractSet<E> implements BinaryTree<E>, NavigableSet<E>{
 	
 	private Node<E> root;
 	private int count = 0;
 	private E oldNode;
+	private int modCount = 0;
 	private boolean dup = false;
 	private boolean removed = false;
+	private E lastBuilt;
+	
+	/*
+	 * addAll rebuilds rather than adding one by one for batches at least
+	 * this large, if the batch is also large relative to the tree.
+	 */
+	private static final int MIN_BULK_SIZE = 16;
+	
+	public AVLTree() {
+	}
+	
+	/**
+	 * Builds a balanced tree from the items in O(n) instead of adding them
+	 * one at a time. Throw an IllegalArgumentException if the array is null,
+	 * or the items are not in strictly ascending order or any is null.
+	 * 
+	 * @param sorted the items in ascending order
+	 */
+	public AVLTree(E[] sorted) {
+		// a null iterator is rejected by the constructor below
+		this(sorted == null ? null : Arrays.asList(sorted).iterator(), sorted == null ? 0 : sorted.length);
+	}
+	
+	/**
+	 * Builds a balanced tree from the first size items of the iterator in
+	 * O(n). Throw an IllegalArgumentException if the items are not in
+	 * strictly ascending order, any is null, or there are fewer than size.
+	 * 
+	 * @param sorted the items in ascending order
+	 * @param size the number of items to take
+	 */
+	public AVLTree(Iterator<? extends E> sorted, int size) {
+		if (sorted == null || size < 0) {
+			throw new IllegalArgumentException();
+		}
+		root = buildFromSorted(sorted, size);
+		lastBuilt = null;
+		count = size;
+	}
 	
 	/**
 	 * 
@@ -24,11 +73,13 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
 		private int balanceFactor;
 		private E data;
 		private int height;
+		private int size;
 		
 		public Node(E data) {
 			this.data = data;
 			left = null;
 			right = null;
+			size = 1;
 		}
 		
 	    public E getData() {
@@ -71,38 +122,377 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
 	    	return height;
 	    }
 
+	    public void setSize(int size) {
+	    	this.size = size;
+	    }
+
+	    /**
+	     * @return the number of nodes in the subtree rooted here
+	     */
+	    public int getSize() {
+	    	return size;
+	    }
+
 	}
 	
 	/**
+	 * Private inner iterator class. Walks the tree lazily, keeping the path
+	 * of nodes still to be visited on a stack, so it holds at most the
+	 * height of the tree. Fails fast if the tree is changed other than
+	 * through the iterator's own remove.
 	 * 
-	 * Private inner iterator class
-	 * @param <E>
+	 * An iterator over a range starts by searching for its first element
+	 * and stops at the first element past the end, so it never visits the
+	 * rest of the tree.
 	 */
-	private class AVLIterator<E> implements Iterator<E>{
-		private List<E> myList = (ArrayList<E>) getInOrder();
-		private int current = 0;
+	private class AVLIterator implements Iterator<E>{
+		private final boolean descending;
+		private final E to;
+		private final boolean toInclusive;
+		private final ArrayDeque<Node<E>> stack = new ArrayDeque<Node<E>>();
+		private E last;
+		private int expectedModCount = modCount;
+
+		/**
+		 * @param descending iterate from the largest element down if true
+		 */
+		private AVLIterator(boolean descending){
+			this(descending, null, false, null, false);
+		}
+
+		/**
+		 * @param from the element to start at, or null to start at the first
+		 * @param to the element to end at, or null to run to the last
+		 */
+		private AVLIterator(boolean descending, E from, boolean fromInclusive, E to, boolean toInclusive){
+			this.descending = descending;
+			this.to = to;
+			this.toInclusive = toInclusive;
+			if (from == null){
+				pushPath(root);
+			} else {
+				seek(from, fromInclusive);
+			}
+		}
+
+		/**
+		 * Push the node and the chain of children leading to the first
+		 * element of its subtree in iteration order.
+		 */
+		private void pushPath(Node<E> node){
+			while (node != null){
+				stack.push(node);
+				node = descending ? node.getRight() : node.getLeft();
+			}
+		}
+
+		/**
+		 * Rebuild the stack to hold the elements from the given one onwards,
+		 * pushing the nodes on its search path that come after it.
+		 */
+		private void seek(E from, boolean inclusive){
+			stack.clear();
+			Node<E> node = root;
+			while (node != null){
+				int cmp = from.compareTo(node.getData());
+				if ((descending ? cmp > 0 : cmp < 0) || (inclusive && cmp == 0)){
+					stack.push(node);
+					node = descending ? node.getRight() : node.getLeft();
+				} else {
+					node = descending ? node.getLeft() : node.getRight();
+				}
+			}
+		}
+
+		private boolean beyondEnd(E item){
+			if (to == null){
+				return false;
+			}
+			int cmp = item.compareTo(to);
+			return (descending ? cmp < 0 : cmp > 0) || (!toInclusive && cmp == 0);
+		}
 
 		public boolean hasNext(){
-			return current < myList.size();
+			return !stack.isEmpty() && !beyondEnd(stack.peek().getData());
 		}
 		
 		public E next(){
-			if (hasNext()){
-				E previous = myList.get(current);
-				current++;
-				return previous;
+			if (modCount != expectedModCount){
+				throw new ConcurrentModificationException();
 			}
-			else { 
+			if (!hasNext()){
 				throw new NoSuchElementException();
-				}
+			}
+			Node<E> node = stack.pop();
+			pushPath(descending ? node.getLeft() : node.getRight());
+			last = node.getData();
+			return last;
 		}
 
+		/**
+		 * Removes the last element returned. Removal rotates nodes and may
+		 * move data between them, so the stack is rebuilt afterwards by
+		 * searching for the elements beyond the removed one.
+		 */
 		public void remove() {
-			return;
+			if (last == null){
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount){
+				throw new ConcurrentModificationException();
+			}
+			AVLTree.this.remove(last);
+			seek(last, false);
+			last = null;
+			expectedModCount = modCount;
 		}
 		
 	}
 	
+	/**
+	 * A live view of the elements between two bounds, in either order.
+	 * Queries and iteration go straight to the backing tree, restricted to
+	 * the range, and size is counted from subtree sizes, so nothing is
+	 * copied. The bounds are kept in ascending terms whatever the order.
+	 */
+	private class AVLSubSet extends AbstractSet<E> implements NavigableSet<E>{
+		/*
+		 * null for no bound on that side
+		 */
+		private final E lo;
+		private final boolean loInclusive;
+		private final E hi;
+		private final boolean hiInclusive;
+		private final boolean descending;
+
+		private AVLSubSet(E lo, boolean loInclusive, E hi, boolean hiInclusive, boolean descending){
+			this.lo = lo;
+			this.loInclusive = loInclusive;
+			this.hi = hi;
+			this.hiInclusive = hiInclusive;
+			this.descending = descending;
+		}
+
+		private boolean tooLow(E item){
+			if (lo == null){
+				return false;
+			}
+			int cmp = item.compareTo(lo);
+			return cmp < 0 || (cmp == 0 && !loInclusive);
+		}
+
+		private boolean tooHigh(E item){
+			if (hi == null){
+				return false;
+			}
+			int cmp = item.compareTo(hi);
+			return cmp > 0 || (cmp == 0 && !hiInclusive);
+		}
+
+		private boolean inRange(E item){
+			return !tooLow(item) && !tooHigh(item);
+		}
+
+		private E absLowest(){
+			E item = lo == null ? min() : nearest(lo, false, loInclusive);
+			return item == null || tooHigh(item) ? null : item;
+		}
+
+		private E absHighest(){
+			E item = hi == null ? max() : nearest(hi, true, hiInclusive);
+			return item == null || tooLow(item) ? null : item;
+		}
+
+		/**
+		 * The closest element in range on one side of the item.
+		 */
+		private E absNearest(E item, boolean below, boolean inclusive){
+			if (item == null){
+				throw new IllegalArgumentException();
+			}
+			if (below ? tooHigh(item) : tooLow(item)){
+				return below ? absHighest() : absLowest();
+			}
+			E found = nearest(item, below, inclusive);
+			return found == null || (below ? tooLow(found) : tooHigh(found)) ? null : found;
+		}
+
+		/**
+		 * A new bound must lie in the range, or for an exclusive bound
+		 * in the range with its ends included.
+		 */
+		private boolean allowedBound(E bound, boolean inclusive){
+			if (inclusive){
+				return inRange(bound);
+			}
+			return (lo == null || bound.compareTo(lo) >= 0) && (hi == null || bound.compareTo(hi) <= 0);
+		}
+
+		/**
+		 * A view of this view's range narrowed to new bounds, given in
+		 * ascending terms. A null bound keeps the current one. Throw an
+		 * IllegalArgumentException if a new bound lies outside the range.
+		 */
+		private AVLSubSet narrow(E newLo, boolean newLoInclusive, E newHi, boolean newHiInclusive, boolean newDescending){
+			if (newLo == null){
+				newLo = lo;
+				newLoInclusive = loInclusive;
+			} else if (!allowedBound(newLo, newLoInclusive)){
+				throw new IllegalArgumentException("bound out of range");
+			}
+			if (newHi == null){
+				newHi = hi;
+				newHiInclusive = hiInclusive;
+			} else if (!allowedBound(newHi, newHiInclusive)){
+				throw new IllegalArgumentException("bound out of range");
+			}
+			if (newLo != null && newHi != null && newLo.compareTo(newHi) > 0){
+				throw new IllegalArgumentException("fromElement > toElement");
+			}
+			return new AVLSubSet(newLo, newLoInclusive, newHi, newHiInclusive, newDescending);
+		}
+
+		public int size(){
+			int upTo = hi == null ? count : countBelow(hi, hiInclusive);
+			int before = lo == null ? 0 : countBelow(lo, !loInclusive);
+			return Math.max(0, upTo - before);
+		}
+
+		public boolean isEmpty(){
+			return absLowest() == null;
+		}
+
+		public boolean contains(Object item){
+			return inRange((E) item) && AVLTree.this.contains((E) item);
+		}
+
+		/**
+		 * Throw an IllegalArgumentException if the item is outside the range.
+		 */
+		public boolean add(E item){
+			if (item == null){
+				return false;
+			}
+			if (!inRange(item)){
+				throw new IllegalArgumentException("element out of range");
+			}
+			return AVLTree.this.add(item);
+		}
+
+		public boolean remove(Object item){
+			return item != null && inRange((E) item) && AVLTree.this.remove((E) item);
+		}
+
+		public void clear(){
+			for (Iterator<E> iter = iterator(); iter.hasNext();){
+				iter.next();
+				iter.remove();
+			}
+		}
+
+		public Iterator<E> iterator(){
+			return descending ? new AVLIterator(true, hi, hiInclusive, lo, loInclusive)
+					: new AVLIterator(false, lo, loInclusive, hi, hiInclusive);
+		}
+
+		public Iterator<E> descendingIterator(){
+			return descending ? new AVLIterator(false, lo, loInclusive, hi, hiInclusive)
+					: new AVLIterator(true, hi, hiInclusive, lo, loInclusive);
+		}
+
+		public Comparator<? super E> comparator(){
+			return descending ? Collections.reverseOrder() : null;
+		}
+
+		public E first(){
+			E item = descending ? absHighest() : absLowest();
+			if (item == null){
+				throw new NoSuchElementException();
+			}
+			return item;
+		}
+
+		public E last(){
+			E item = descending ? absLowest() : absHighest();
+			if (item == null){
+				throw new NoSuchElementException();
+			}
+			return item;
+		}
+
+		public E lower(E item){
+			return absNearest(item, !descending, false);
+		}
+
+		public E floor(E item){
+			return absNearest(item, !descending, true);
+		}
+
+		public E ceiling(E item){
+			return absNearest(item, descending, true);
+		}
+
+		public E higher(E item){
+			return absNearest(item, descending, false);
+		}
+
+		public E pollFirst(){
+			E item = descending ? absHighest() : absLowest();
+			if (item != null){
+				AVLTree.this.remove(item);
+			}
+			return item;
+		}
+
+		public E pollLast(){
+			E item = descending ? absLowest() : absHighest();
+			if (item != null){
+				AVLTree.this.remove(item);
+			}
+			return item;
+		}
+
+		public NavigableSet<E> descendingSet(){
+			return new AVLSubSet(lo, loInclusive, hi, hiInclusive, !descending);
+		}
+
+		public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive){
+			if (fromElement == null || toElement == null){
+				throw new IllegalArgumentException();
+			}
+			return descending ? narrow(toElement, toInclusive, fromElement, fromInclusive, true)
+					: narrow(fromElement, fromInclusive, toElement, toInclusive, false);
+		}
+
+		public NavigableSet<E> headSet(E toElement, boolean inclusive){
+			if (toElement == null){
+				throw new IllegalArgumentException();
+			}
+			return descending ? narrow(toElement, inclusive, null, false, true)
+					: narrow(null, false, toElement, inclusive, false);
+		}
+
+		public NavigableSet<E> tailSet(E fromElement, boolean inclusive){
+			if (fromElement == null){
+				throw new IllegalArgumentException();
+			}
+			return descending ? narrow(null, false, fromElement, inclusive, true)
+					: narrow(fromElement, inclusive, null, false, false);
+		}
+
+		public SortedSet<E> subSet(E fromElement, E toElement){
+			return subSet(fromElement, true, toElement, false);
+		}
+
+		public SortedSet<E> headSet(E toElement){
+			return headSet(toElement, false);
+		}
+
+		public SortedSet<E> tailSet(E fromElement){
+			return tailSet(fromElement, true);
+		}
+	}
+	
 	/**
 	 * Adds the item to the tree.  Duplicate items and null items should not be added.
 	 * 
@@ -120,11 +510,99 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
 			} else {
 				update(root);
 				root = rotate(root);
+				modCount++;
 				return true;
 			}
 		}	
 	}
 	
+	/**
+	 * Adds every item in the collection. A batch that is large next to the
+	 * tree is sorted and merged with the tree's elements in order, and the
+	 * tree rebuilt from the result, in O(n + k log k) for k items rather
+	 * than O(k log n) with a rotation-prone descent per item. Null items
+	 * are skipped.
+	 * 
+	 * @return true if any item was added
+	 */
+	public boolean addAll(Collection<? extends E> items){
+		if (!worthRebuilding(items.size())) {
+			return super.addAll(items);
+		}
+		Object[] batch = items.toArray();
+		int n = 0;
+		for (Object item : batch) {
+			if (item != null) {
+				batch[n++] = item;
+			}
+		}
+		// a naturally ordered sorted set is already in order
+		if (!(items instanceof SortedSet && ((SortedSet<?>) items).comparator() == null)) {
+			Arrays.sort(batch, 0, n);
+		}
+		E[] merged = (E[]) new Comparable[count + n];
+		int m = 0;
+		Iterator<E> existing = iterator();
+		E next = existing.hasNext() ? existing.next() : null;
+		int i = 0;
+		while (next != null || i < n) {
+			E item;
+			if (i == n || (next != null && next.compareTo(batch[i]) <= 0)) {
+				item = next;
+				next = existing.hasNext() ? existing.next() : null;
+			} else {
+				item = (E) batch[i++];
+			}
+			if (m == 0 || item.compareTo(merged[m - 1]) != 0) {
+				merged[m++] = item;
+			}
+		}
+		if (m == count) {
+			return false;
+		}
+		root = buildFromSorted(Arrays.asList(merged).subList(0, m).iterator(), m);
+		lastBuilt = null;
+		count = m;
+		modCount++;
+		return true;
+	}
+	
+	/**
+	 * Adding k items one at a time costs about k log n comparisons, while
+	 * rebuilding costs about n + k, so rebuild once k log n passes n + k.
+	 */
+	private boolean worthRebuilding(int batch){
+		long total = (long) count + batch;
+		return batch >= MIN_BULK_SIZE && (long) batch * (64 - Long.numberOfLeadingZeros(total)) >= total;
+	}
+	
+	/**
+	 * Builds a balanced subtree from the next size items, taking the left
+	 * subtree's items first, then the root, then the right subtree's, so
+	 * each item is read once in order. Heights differ by at most one
+	 * everywhere, so no rotations are needed.
+	 */
+	private Node<E> buildFromSorted(Iterator<? extends E> sorted, int size){
+		if (size == 0) {
+			return null;
+		}
+		int leftSize = (size - 1) / 2;
+		Node<E> left = buildFromSorted(sorted, leftSize);
+		if (!sorted.hasNext()) {
+			throw new IllegalArgumentException("fewer items than size");
+		}
+		E item = sorted.next();
+		if (item == null || (lastBuilt != null && item.compareTo(lastBuilt) <= 0)) {
+			throw new IllegalArgumentException("items not in strictly ascending order");
+		}
+		lastBuilt = item;
+		Node<E> node = new Node<E>(item);
+		node.setLeft(left);
+		node.setRight(buildFromSorted(sorted, size - 1 - leftSize));
+		update(node);
+		return node;
+	}
+	
 	private Node<E> addHelper(Node<E> curr, E item){
 		if (curr == null) {
 			count++;
@@ -194,26 +672,268 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
         return current.getData();
 	}
 
+	/**
+	 * Walks down from the root, comparing once per level.
+	 */
 	private E get(E item){
 		if (item == null){
 			throw new IllegalArgumentException();
 		}
-		return getHelper(root, item);
+		Node<E> current = root;
+		while (current != null) {
+			int cmp = item.compareTo(current.getData());
+			if (cmp < 0) {
+				current = current.getLeft();
+			} else if (cmp > 0) {
+				current = current.getRight();
+			} else {
+				return current.getData();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Finds the closest element on one side of the item, comparing once per
+	 * level. Each time the walk turns away from that side the current node
+	 * is the best candidate so far.
+	 * 
+	 * @param below look for elements less than the item if true, greater if false
+	 * @param inclusive whether an element equal to the item qualifies
+	 * @return the closest such element, or null if there is none
+	 */
+	private E nearest(E item, boolean below, boolean inclusive){
+		if (item == null){
+			throw new IllegalArgumentException();
+		}
+		Node<E> current = root;
+		E best = null;
+		while (current != null) {
+			int cmp = item.compareTo(current.getData());
+			if (cmp == 0 && inclusive) {
+				return current.getData();
+			} else if (below ? cmp > 0 : cmp < 0) {
+				best = current.getData();
+				current = below ? current.getRight() : current.getLeft();
+			} else {
+				current = below ? current.getLeft() : current.getRight();
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * @return the greatest element less than or equal to the item, or null if there is none
+	 */
+	public E floor(E item){
+		return nearest(item, true, true);
+	}
+	
+	/**
+	 * @return the least element greater than or equal to the item, or null if there is none
+	 */
+	public E ceiling(E item){
+		return nearest(item, false, true);
+	}
+	
+	/**
+	 * @return the greatest element strictly less than the item, or null if there is none
+	 */
+	public E lower(E item){
+		return nearest(item, true, false);
+	}
+	
+	/**
+	 * @return the least element strictly greater than the item, or null if there is none
+	 */
+	public E higher(E item){
+		return nearest(item, false, false);
+	}
+	
+	/**
+	 * Throw a NoSuchElementException if the tree is empty.
+	 * @return the minimum element in the tree
+	 */
+	public E first(){
+		E item = min();
+		if (item == null){
+			throw new NoSuchElementException();
+		}
+		return item;
+	}
+	
+	/**
+	 * Throw a NoSuchElementException if the tree is empty.
+	 * @return the maximum element in the tree
+	 */
+	public E last(){
+		E item = max();
+		if (item == null){
+			throw new NoSuchElementException();
+		}
+		return item;
+	}
+	
+	/**
+	 * Removes the minimum element.
+	 * @return the element removed, or null if the tree is empty
+	 */
+	public E pollFirst(){
+		E item = min();
+		if (item != null){
+			remove(item);
+		}
+		return item;
+	}
+	
+	/**
+	 * Removes the maximum element.
+	 * @return the element removed, or null if the tree is empty
+	 */
+	public E pollLast(){
+		E item = max();
+		if (item != null){
+			remove(item);
+		}
+		return item;
+	}
+	
+	/**
+	 * @return null, as elements are kept in their natural order
+	 */
+	public Comparator<? super E> comparator(){
+		return null;
+	}
+	
+	/**
+	 * @return a live view of the elements in descending order
+	 */
+	public NavigableSet<E> descendingSet(){
+		return new AVLSubSet(null, false, null, false, true);
+	}
+	
+	/**
+	 * The range views below are live: changes to the tree show through
+	 * them and changes through them reach the tree. Adding an element
+	 * outside a view's range throws an IllegalArgumentException.
+	 * 
+	 * @return a live view of the elements from fromElement to toElement
+	 */
+	public NavigableSet<E> subSet(E fromElement, boolean fromInclusive, E toElement, boolean toInclusive){
+		if (fromElement == null || toElement == null){
+			throw new IllegalArgumentException();
+		}
+		if (fromElement.compareTo(toElement) > 0){
+			throw new IllegalArgumentException("fromElement > toElement");
+		}
+		return new AVLSubSet(fromElement, fromInclusive, toElement, toInclusive, false);
+	}
+	
+	/**
+	 * @return a live view of the elements less than (or equal to, if
+	 * inclusive) toElement
+	 */
+	public NavigableSet<E> headSet(E toElement, boolean inclusive){
+		if (toElement == null){
+			throw new IllegalArgumentException();
+		}
+		return new AVLSubSet(null, false, toElement, inclusive, false);
+	}
+	
+	/**
+	 * @return a live view of the elements greater than (or equal to, if
+	 * inclusive) fromElement
+	 */
+	public NavigableSet<E> tailSet(E fromElement, boolean inclusive){
+		if (fromElement == null){
+			throw new IllegalArgumentException();
+		}
+		return new AVLSubSet(fromElement, inclusive, null, false, false);
+	}
+	
+	public SortedSet<E> subSet(E fromElement, E toElement){
+		return subSet(fromElement, true, toElement, false);
+	}
+	
+	public SortedSet<E> headSet(E toElement){
+		return headSet(toElement, false);
+	}
+	
+	public SortedSet<E> tailSet(E fromElement){
+		return tailSet(fromElement, true);
+	}
+	
+	private int size(Node<E> node){
+		return node == null ? 0 : node.getSize();
+	}
+	
+	/**
+	 * Counts the elements below the item by walking down to it, adding up
+	 * the left subtrees passed over on the way.
+	 * 
+	 * @param inclusive whether an element equal to the item counts
+	 */
+	private int countBelow(E item, boolean inclusive){
+		if (item == null){
+			throw new IllegalArgumentException();
+		}
+		int below = 0;
+		Node<E> current = root;
+		while (current != null) {
+			int cmp = item.compareTo(current.getData());
+			if (cmp < 0) {
+				current = current.getLeft();
+			} else if (cmp > 0) {
+				below += size(current.getLeft()) + 1;
+				current = current.getRight();
+			} else {
+				return below + size(current.getLeft()) + (inclusive ? 1 : 0);
+			}
+		}
+		return below;
 	}
 	
+	/**
+	 * @return the number of elements strictly less than the item, which is
+	 * the item's index in in-order traversal order if it is in the tree
+	 */
+	public int rank(E item){
+		return countBelow(item, false);
+	}
 	
-	private E getHelper(Node<E> current, E item){
-		E gotNode = null;
-		if (current == null){
-			return gotNode;
-		} else if (item.compareTo(current.getData()) == 0) {
-			gotNode = current.getData();
-		} else if (item.compareTo(current.getData()) < 0) {
-			gotNode = getHelper(current.getLeft(), item);
-		} else if (item.compareTo(current.getData()) > 0) {
-			gotNode = getHelper(current.getRight(), item);
+	/**
+	 * Throw an IndexOutOfBoundsException unless 0 <= index < size().
+	 * @return the element at the index in in-order traversal order
+	 */
+	public E select(int index){
+		if (index < 0 || index >= count){
+			throw new IndexOutOfBoundsException("index " + index + ", size " + count);
+		}
+		Node<E> current = root;
+		while (true) {
+			int leftSize = size(current.getLeft());
+			if (index < leftSize) {
+				current = current.getLeft();
+			} else if (index > leftSize) {
+				index -= leftSize + 1;
+				current = current.getRight();
+			} else {
+				return current.getData();
+			}
 		}
-		return gotNode;
+	}
+	
+	/**
+	 * @return the number of elements from lo to hi, both inclusive
+	 */
+	public int countInRange(E lo, E hi){
+		if (lo == null || hi == null){
+			throw new IllegalArgumentException();
+		}
+		if (lo.compareTo(hi) > 0){
+			return 0;
+		}
+		return countBelow(hi, true) - countBelow(lo, false);
 	}
 	
 	/**
@@ -225,6 +945,14 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
 		return get(item) != null;
 	}
 	
+	/**
+	 * Set version of contains. Throw a ClassCastException if the item
+	 * cannot be compared with the elements.
+	 */
+	public boolean contains(Object item){
+		return contains((E) item);
+	}
+	
 	/**
 	 * removes the given item from the tree
 	 * @param item the item to remove
@@ -237,22 +965,29 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
 		root = removeHelper(root, item);
 		if (removed){
 			removed = false;
-			update(root);
-			root = rotate(root);
+			if (root != null) {
+				update(root);
+				root = rotate(root);
+			}
+			modCount++;
 			return true;
 		} else {
 			return false;
 		}
 	}
 	
+	/**
+	 * Set version of remove. Throw a ClassCastException if the item
+	 * cannot be compared with the elements.
+	 */
+	public boolean remove(Object item){
+		return remove((E) item);
+	}
+	
 	private Node<E> removeHelper(Node<E> curr, E item) {
 		oldNode = null;
 		if (curr == null) {
 			return null;
-		} else if (root.getData() == item && root.getLeft() == null && root.getRight() == null) {
-			root = null;
-			count = 0;
-			removed = true;
 		} else if (item.compareTo(curr.getData()) < 0) {
 			curr.setLeft(removeHelper(curr.getLeft(), item));
 			update(curr);
@@ -276,6 +1011,8 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
 			oldNode = findSuccessor(curr.getRight());
 			curr.setData(oldNode);
 			curr.setRight(removeHelper(curr.getRight(), oldNode));
+			update(curr);
+			curr = rotate(curr);
 			oldNode = temp;
 		} else {
 			return null;
@@ -314,8 +1051,8 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
 		Node<E> left = node.getLeft();
 		node.setLeft(left.getRight());
 		left.setRight(node);
+		update(node);
 		update(left);
-		update(left.getRight());
 		return left;
 	}
 	
@@ -323,8 +1060,8 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
 		Node<E> right = node.getRight();
 		node.setRight(right.getLeft());
 		right.setLeft(node);
+		update(node);
 		update(right);
-		update(right.getLeft());
 		return right;
 	}
 	
@@ -341,14 +1078,16 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
 	}
 	
 	/**
-	 * A helper method to update balance factors and heights for AVL adding/removing
+	 * A helper method to update balance factors, heights and subtree sizes for AVL adding/removing
 	 * @param node a node that needs to be updated
 	 */
 	private void update(Node<E> node) {
 		int max = 0;
 		if (node == null) {
 			return;
-		} else if ((node.getLeft() == null) && (node.getRight() == null)) {
+		}
+		node.setSize(size(node.getLeft()) + size(node.getRight()) + 1);
+		if ((node.getLeft() == null) && (node.getRight() == null)) {
 			node.setHeight(1);
 			node.setBalanceFactor(0);
 		} else if (node.getLeft() == null) {
@@ -369,9 +1108,17 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
      * iterator is based on an in-order traversal
      */
 	public Iterator<E> iterator(){
-		AVLIterator<E> iter = new AVLIterator();
+		AVLIterator iter = new AVLIterator(false);
 		return iter;
 	}
+	
+	/**
+	 * returns an iterator over this collection from the largest element
+	 * down to the smallest
+	 */
+	public Iterator<E> descendingIterator(){
+		return new AVLIterator(true);
+	}
 	/**
 	 * @return a list of the data in in-order traversal order
 	 */
@@ -454,6 +1201,7 @@ public class AVLTree<E extends Comparable> implements BinaryTree<E>{
     public void clear(){
     	root = null;
     	count = 0;
+    	modCount++;
     }
 
 }
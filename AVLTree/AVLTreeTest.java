@@ -0,0 +1,442 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * AVLTree checked against a TreeSet holding the same elements.
+ */
+public class AVLTreeTest {
+
+    /**
+     * Fills the tree and the set with the same random keys from 0 to range.
+     */
+    private static void fill(AVLTree<Integer> tree, TreeSet<Integer> set, Random random, int n, int range) {
+        for (int i = 0; i < n; i++) {
+            int key = random.nextInt(range);
+            assertEquals(set.add(key), tree.add(key));
+        }
+    }
+
+    @Test
+    public void testContainsAfterAddsAndRemoves() {
+        Random random = new Random(1);
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        fill(tree, set, random, 2000, 1000);
+        for (int i = 0; i < 500; i++) {
+            int key = random.nextInt(1000);
+            assertEquals(set.remove(key), tree.remove(key));
+        }
+        assertEquals(set.size(), tree.size());
+        for (int key = -5; key < 1005; key++) {
+            assertEquals("contains " + key, set.contains(key), tree.contains(key));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        assertFalse(tree.contains(1));
+        assertNull(tree.floor(1));
+        assertNull(tree.ceiling(1));
+        assertNull(tree.lower(1));
+        assertNull(tree.higher(1));
+        assertNull(tree.min());
+        assertNull(tree.max());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContainsNull() {
+        new AVLTree<Integer>().contains(null);
+    }
+
+    @Test
+    public void testNearestMatchesTreeSet() {
+        Random random = new Random(2);
+        for (int round = 0; round < 200; round++) {
+            AVLTree<Integer> tree = new AVLTree<Integer>();
+            TreeSet<Integer> set = new TreeSet<Integer>();
+            fill(tree, set, random, random.nextInt(100), 200);
+            for (int key = -2; key < 202; key++) {
+                assertEquals("floor " + key, set.floor(key), tree.floor(key));
+                assertEquals("ceiling " + key, set.ceiling(key), tree.ceiling(key));
+                assertEquals("lower " + key, set.lower(key), tree.lower(key));
+                assertEquals("higher " + key, set.higher(key), tree.higher(key));
+            }
+            if (!set.isEmpty()) {
+                assertEquals(set.first(), tree.min());
+                assertEquals(set.last(), tree.max());
+            }
+        }
+    }
+
+    @Test
+    public void testIteratorOrder() {
+        Random random = new Random(3);
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        fill(tree, set, random, 1000, 5000);
+        assertEquals(new ArrayList<Integer>(set), tree.getInOrder());
+        List<Integer> ascending = new ArrayList<Integer>();
+        for (Integer key : tree) {
+            ascending.add(key);
+        }
+        assertEquals(new ArrayList<Integer>(set), ascending);
+        List<Integer> descending = new ArrayList<Integer>();
+        for (Iterator<Integer> iter = tree.descendingIterator(); iter.hasNext();) {
+            descending.add(iter.next());
+        }
+        assertEquals(new ArrayList<Integer>(set.descendingSet()), descending);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIteratorPastEnd() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        tree.add(1);
+        Iterator<Integer> iter = tree.iterator();
+        iter.next();
+        iter.next();
+    }
+
+    /**
+     * Removing through either iterator leaves it on the next element even
+     * though the removal rotates the nodes it was walking.
+     */
+    @Test
+    public void testIteratorRemove() {
+        Random random = new Random(4);
+        for (int round = 0; round < 100; round++) {
+            AVLTree<Integer> tree = new AVLTree<Integer>();
+            TreeSet<Integer> set = new TreeSet<Integer>();
+            fill(tree, set, random, random.nextInt(200), 300);
+            boolean descending = round % 2 == 1;
+            Iterator<Integer> iter = descending ? tree.descendingIterator() : tree.iterator();
+            Iterator<Integer> expected = descending ? set.descendingIterator() : set.iterator();
+            while (expected.hasNext()) {
+                assertTrue(iter.hasNext());
+                assertEquals(expected.next(), iter.next());
+                if (random.nextInt(3) == 0) {
+                    iter.remove();
+                    expected.remove();
+                }
+            }
+            assertFalse(iter.hasNext());
+            assertEquals(set.size(), tree.size());
+            assertEquals(new ArrayList<Integer>(set), tree.getInOrder());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIteratorRemoveTwice() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        tree.add(1);
+        tree.add(2);
+        Iterator<Integer> iter = tree.iterator();
+        iter.next();
+        iter.remove();
+        iter.remove();
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testIteratorConcurrentModification() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        tree.add(1);
+        tree.add(2);
+        Iterator<Integer> iter = tree.iterator();
+        iter.next();
+        tree.add(3);
+        iter.next();
+    }
+
+    /**
+     * rank and select agree with positions in a sorted list, including
+     * after removals have rotated the tree and changed subtree sizes.
+     */
+    @Test
+    public void testRankAndSelect() {
+        Random random = new Random(5);
+        for (int round = 0; round < 50; round++) {
+            AVLTree<Integer> tree = new AVLTree<Integer>();
+            TreeSet<Integer> set = new TreeSet<Integer>();
+            fill(tree, set, random, random.nextInt(300), 400);
+            for (int i = 0; i < 50; i++) {
+                int key = random.nextInt(400);
+                assertEquals(set.remove(key), tree.remove(key));
+            }
+            List<Integer> sorted = new ArrayList<Integer>(set);
+            for (int i = 0; i < sorted.size(); i++) {
+                assertEquals(sorted.get(i), tree.select(i));
+                assertEquals(i, tree.rank(sorted.get(i)));
+            }
+            for (int key = -1; key < 401; key++) {
+                assertEquals("rank " + key, set.headSet(key).size(), tree.rank(key));
+            }
+        }
+    }
+
+    @Test
+    public void testCountInRange() {
+        Random random = new Random(6);
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        fill(tree, set, random, 300, 500);
+        for (int i = 0; i < 1000; i++) {
+            int lo = random.nextInt(520) - 10;
+            int hi = random.nextInt(520) - 10;
+            int expected = lo > hi ? 0 : set.subSet(lo, true, hi, true).size();
+            assertEquals(lo + ".." + hi, expected, tree.countInRange(lo, hi));
+        }
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testSelectPastEnd() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        tree.add(1);
+        tree.select(1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testSelectNegative() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        tree.add(1);
+        tree.select(-1);
+    }
+
+    /**
+     * Checks the view against the TreeSet's view of the same range, in
+     * both directions and through the navigation methods.
+     */
+    private static void checkView(NavigableSet<Integer> expected, NavigableSet<Integer> view) {
+        assertEquals(expected.size(), view.size());
+        assertEquals(expected.isEmpty(), view.isEmpty());
+        assertEquals(new ArrayList<Integer>(expected), new ArrayList<Integer>(view));
+        List<Integer> descending = new ArrayList<Integer>();
+        for (Iterator<Integer> iter = view.descendingIterator(); iter.hasNext();) {
+            descending.add(iter.next());
+        }
+        assertEquals(new ArrayList<Integer>(expected.descendingSet()), descending);
+        if (!expected.isEmpty()) {
+            assertEquals(expected.first(), view.first());
+            assertEquals(expected.last(), view.last());
+        }
+        for (int key = -2; key < 102; key++) {
+            assertEquals("contains " + key, expected.contains(key), view.contains(key));
+            assertEquals("floor " + key, expected.floor(key), view.floor(key));
+            assertEquals("ceiling " + key, expected.ceiling(key), view.ceiling(key));
+            assertEquals("lower " + key, expected.lower(key), view.lower(key));
+            assertEquals("higher " + key, expected.higher(key), view.higher(key));
+        }
+    }
+
+    @Test
+    public void testViewsMatchTreeSet() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            AVLTree<Integer> tree = new AVLTree<Integer>();
+            TreeSet<Integer> set = new TreeSet<Integer>();
+            fill(tree, set, random, random.nextInt(80), 100);
+            int lo = random.nextInt(50);
+            int hi = lo + 1 + random.nextInt(50);
+            boolean loInclusive = random.nextBoolean();
+            boolean hiInclusive = random.nextBoolean();
+            checkView(set.subSet(lo, loInclusive, hi, hiInclusive), tree.subSet(lo, loInclusive, hi, hiInclusive));
+            checkView(set.headSet(hi, hiInclusive), tree.headSet(hi, hiInclusive));
+            checkView(set.tailSet(lo, loInclusive), tree.tailSet(lo, loInclusive));
+            checkView(set.descendingSet(), tree.descendingSet());
+            checkView(set.descendingSet().subSet(hi, hiInclusive, lo, loInclusive),
+                    tree.descendingSet().subSet(hi, hiInclusive, lo, loInclusive));
+            // a view of a view is limited by both ranges
+            checkView(set.tailSet(lo, loInclusive).headSet(hi, hiInclusive),
+                    tree.tailSet(lo, loInclusive).headSet(hi, hiInclusive));
+            checkView((NavigableSet<Integer>) set.subSet(lo, hi), (NavigableSet<Integer>) tree.subSet(lo, hi));
+        }
+    }
+
+    @Test
+    public void testViewsAreLive() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        for (int i = 0; i < 100; i += 10) {
+            tree.add(i);
+        }
+        NavigableSet<Integer> view = tree.subSet(20, true, 60, false);
+        assertEquals(4, view.size());
+        tree.add(25);
+        tree.add(60);
+        assertTrue(view.contains(25));
+        assertFalse(view.contains(60));
+        assertEquals(5, view.size());
+        assertTrue(view.add(55));
+        assertTrue(tree.contains(55));
+        assertTrue(view.remove(20));
+        assertFalse(tree.contains(20));
+        assertFalse(view.remove(70));
+        assertTrue(tree.contains(70));
+        assertEquals(Integer.valueOf(25), view.pollFirst());
+        assertEquals(Integer.valueOf(55), view.pollLast());
+        assertFalse(tree.contains(25));
+        assertFalse(tree.contains(55));
+        view.clear();
+        assertTrue(view.isEmpty());
+        assertEquals(Arrays.asList(0, 10, 60, 70, 80, 90),
+                tree.getInOrder());
+    }
+
+    @Test
+    public void testViewIteratorRemove() {
+        Random random = new Random(8);
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        fill(tree, set, random, 80, 100);
+        Iterator<Integer> iter = tree.subSet(20, true, 80, true).iterator();
+        Iterator<Integer> expected = set.subSet(20, true, 80, true).iterator();
+        while (expected.hasNext()) {
+            assertEquals(expected.next(), iter.next());
+            if (random.nextBoolean()) {
+                iter.remove();
+                expected.remove();
+            }
+        }
+        assertFalse(iter.hasNext());
+        assertEquals(new ArrayList<Integer>(set), tree.getInOrder());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testViewAddOutOfRange() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        tree.headSet(10, false).add(10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubViewOutOfRange() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        tree.subSet(10, true, 20, true).subSet(5, true, 15, true);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSubSetBoundsReversed() {
+        new AVLTree<Integer>().subSet(20, true, 10, true);
+    }
+
+    @Test
+    public void testBuildFromSorted() {
+        for (int n = 0; n < 200; n++) {
+            Integer[] sorted = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                sorted[i] = 3 * i;
+            }
+            AVLTree<Integer> tree = new AVLTree<Integer>(sorted);
+            assertEquals(n, tree.size());
+            assertEquals(Arrays.asList(sorted), tree.getInOrder());
+            // subtree sizes are set up for select, and the tree takes further changes
+            for (int i = 0; i < n; i++) {
+                assertEquals(sorted[i], tree.select(i));
+            }
+            assertTrue(tree.add(1));
+            assertEquals(n > 0, tree.remove((Object) 0));
+            assertEquals(Math.max(n, 1), tree.size());
+        }
+    }
+
+    @Test
+    public void testBuildFromIterator() {
+        List<Integer> sorted = Arrays.asList(1, 2, 3, 5, 8, 13, 21);
+        AVLTree<Integer> tree = new AVLTree<Integer>(sorted.iterator(), 5);
+        assertEquals(sorted.subList(0, 5), tree.getInOrder());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildFromUnsorted() {
+        new AVLTree<Integer>(new Integer[] {1, 3, 2});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildFromDuplicates() {
+        new AVLTree<Integer>(new Integer[] {1, 2, 2});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildFromNull() {
+        new AVLTree<Integer>(new Integer[] {1, null, 3});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildFromNullArray() {
+        new AVLTree<Integer>((Integer[]) null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBuildFromTooFewItems() {
+        new AVLTree<Integer>(Arrays.asList(1, 2).iterator(), 3);
+    }
+
+    /**
+     * Batches both large and small next to the tree, so both the merge and
+     * the one-at-a-time path run, with duplicates, nulls and reverse order.
+     */
+    @Test
+    public void testAddAll() {
+        Random random = new Random(9);
+        for (int round = 0; round < 200; round++) {
+            AVLTree<Integer> tree = new AVLTree<Integer>();
+            TreeSet<Integer> set = new TreeSet<Integer>();
+            fill(tree, set, random, random.nextInt(100), 500);
+            List<Integer> batch = new ArrayList<Integer>();
+            int n = random.nextInt(round % 2 == 0 ? 20 : 300);
+            for (int i = 0; i < n; i++) {
+                batch.add(random.nextInt(10) == 0 ? null : Integer.valueOf(random.nextInt(500)));
+            }
+            List<Integer> nonNull = new ArrayList<Integer>(batch);
+            nonNull.removeAll(Arrays.asList((Integer) null));
+            assertEquals(set.addAll(nonNull), tree.addAll(batch));
+            assertEquals(set.size(), tree.size());
+            assertEquals(new ArrayList<Integer>(set), tree.getInOrder());
+            for (int i = 0; i < set.size(); i++) {
+                assertEquals(i, tree.rank(tree.select(i)));
+            }
+            assertFalse(tree.addAll(nonNull));
+        }
+    }
+
+    @Test
+    public void testAddAllSortedSets() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        tree.add(50);
+        TreeSet<Integer> ascending = new TreeSet<Integer>();
+        TreeSet<Integer> descending = new TreeSet<Integer>(Collections.reverseOrder());
+        for (int i = 0; i < 100; i += 2) {
+            ascending.add(i);
+            descending.add(i + 1);
+        }
+        assertTrue(tree.addAll(ascending));
+        assertTrue(tree.addAll(descending));
+        assertFalse(tree.addAll(descending));
+        assertEquals(100, tree.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.valueOf(i), tree.select(i));
+        }
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testAddAllConcurrentModification() {
+        AVLTree<Integer> tree = new AVLTree<Integer>();
+        tree.add(-1);
+        List<Integer> batch = new ArrayList<Integer>();
+        for (int i = 0; i < 100; i++) {
+            batch.add(i);
+        }
+        Iterator<Integer> iter = tree.iterator();
+        tree.addAll(batch);
+        iter.next();
+    }
+}
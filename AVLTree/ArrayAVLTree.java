@@ -0,0 +1,468 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An AVL tree that keeps its nodes in parallel arrays instead of node
+ * objects. A node is an index: its children are in left and right, its
+ * height in height and its element in data. Slots freed by remove are
+ * chained through left into a free list and reused by add.
+ *
+ * A tree of n elements is four arrays rather than n objects, which saves
+ * the per-object header and reference fields, keeps nodes close together
+ * in memory and leaves the garbage collector nothing to trace but the
+ * elements themselves.
+ */
+public class ArrayAVLTree<E extends Comparable> implements BinaryTree<E>{
+
+	/*
+	 * Index standing for a missing child or an empty tree.
+	 */
+	private static final int NIL = -1;
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] left;
+	private int[] right;
+	private int[] height;
+	private Object[] data;
+	private int root = NIL;
+	private int count = 0;
+	/*
+	 * Slots below used have been handed out at least once; those not in
+	 * the tree are on the free list starting at free.
+	 */
+	private int used = 0;
+	private int free = NIL;
+	private int modCount = 0;
+	private boolean changed = false;
+
+	public ArrayAVLTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity the number of elements to make room for
+	 */
+	public ArrayAVLTree(int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException();
+		}
+		initialCapacity = Math.max(1, initialCapacity);
+		left = new int[initialCapacity];
+		right = new int[initialCapacity];
+		height = new int[initialCapacity];
+		data = new Object[initialCapacity];
+	}
+
+	/**
+	 * Private inner iterator class. Keeps the path of nodes still to be
+	 * visited on an int stack no deeper than the tree.
+	 */
+	private class ArrayAVLIterator implements Iterator<E>{
+		private int[] stack = new int[height(root)];
+		private int depth = 0;
+		private E last;
+		private int expectedModCount = modCount;
+
+		private ArrayAVLIterator(){
+			pushPath(root);
+		}
+
+		private void pushPath(int node){
+			while (node != NIL){
+				stack[depth++] = node;
+				node = left[node];
+			}
+		}
+
+		public boolean hasNext(){
+			return depth > 0;
+		}
+
+		public E next(){
+			if (modCount != expectedModCount){
+				throw new ConcurrentModificationException();
+			}
+			if (depth == 0){
+				throw new NoSuchElementException();
+			}
+			int node = stack[--depth];
+			pushPath(right[node]);
+			last = (E) data[node];
+			return last;
+		}
+
+		/**
+		 * Removes the last element returned, then rebuilds the stack by
+		 * searching for the elements after it, as removal rotates nodes.
+		 */
+		public void remove(){
+			if (last == null){
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount){
+				throw new ConcurrentModificationException();
+			}
+			ArrayAVLTree.this.remove(last);
+			stack = new int[height(root)];
+			depth = 0;
+			int node = root;
+			while (node != NIL){
+				if (last.compareTo(data[node]) < 0){
+					stack[depth++] = node;
+					node = left[node];
+				} else {
+					node = right[node];
+				}
+			}
+			last = null;
+			expectedModCount = modCount;
+		}
+	}
+
+	private int height(int node){
+		return node == NIL ? 0 : height[node];
+	}
+
+	/**
+	 * Take a slot from the free list, or the next unused one. The caller
+	 * makes sure there is room.
+	 */
+	private int allocate(E item){
+		int node;
+		if (free != NIL){
+			node = free;
+			free = left[node];
+		} else {
+			node = used++;
+		}
+		left[node] = NIL;
+		right[node] = NIL;
+		height[node] = 1;
+		data[node] = item;
+		return node;
+	}
+
+	private void release(int node){
+		data[node] = null;
+		left[node] = free;
+		free = node;
+	}
+
+	private void grow(){
+		int capacity = data.length * 2;
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		height = Arrays.copyOf(height, capacity);
+		data = Arrays.copyOf(data, capacity);
+	}
+
+	/**
+	 * Adds the item to the tree.  Duplicate items and null items should not be added.
+	 *
+	 * @param item the item to add
+	 * @return true if item added, false if it was not
+	 */
+	public boolean add(E item){
+		if (item == null){
+			return false;
+		}
+		// grow before descending, as the helper stores into the arrays on its way back up
+		if (free == NIL && used == data.length){
+			grow();
+		}
+		root = addHelper(root, item);
+		if (changed){
+			changed = false;
+			modCount++;
+			return true;
+		}
+		return false;
+	}
+
+	private int addHelper(int node, E item){
+		if (node == NIL){
+			changed = true;
+			count++;
+			return allocate(item);
+		}
+		int cmp = item.compareTo(data[node]);
+		if (cmp < 0){
+			left[node] = addHelper(left[node], item);
+		} else if (cmp > 0){
+			right[node] = addHelper(right[node], item);
+		} else {
+			return node;
+		}
+		return rebalance(node);
+	}
+
+	/**
+	 * removes the given item from the tree
+	 * @param item the item to remove
+	 * @return true if item removed, false if item not found
+	 */
+	public boolean remove(E item){
+		if (item == null){
+			return false;
+		}
+		root = removeHelper(root, item);
+		if (changed){
+			changed = false;
+			modCount++;
+			return true;
+		}
+		return false;
+	}
+
+	private int removeHelper(int node, E item){
+		if (node == NIL){
+			return NIL;
+		}
+		int cmp = item.compareTo(data[node]);
+		if (cmp < 0){
+			left[node] = removeHelper(left[node], item);
+		} else if (cmp > 0){
+			right[node] = removeHelper(right[node], item);
+		} else {
+			changed = true;
+			count--;
+			if (left[node] == NIL || right[node] == NIL){
+				int child = left[node] == NIL ? right[node] : left[node];
+				release(node);
+				return child;
+			}
+			// move the successor's slot into the removed node's place
+			int successor = right[node];
+			while (left[successor] != NIL){
+				successor = left[successor];
+			}
+			right[successor] = removeMin(right[node]);
+			left[successor] = left[node];
+			release(node);
+			node = successor;
+		}
+		return rebalance(node);
+	}
+
+	/**
+	 * Unlink the smallest node of the subtree, leaving its slot alone.
+	 * @return the new root of the subtree
+	 */
+	private int removeMin(int node){
+		if (left[node] == NIL){
+			return right[node];
+		}
+		left[node] = removeMin(left[node]);
+		return rebalance(node);
+	}
+
+	/**
+	 * Update the node's height and rotate it if its children's heights
+	 * differ by more than one.
+	 * @return the new root of the subtree
+	 */
+	private int rebalance(int node){
+		update(node);
+		int bf = height(left[node]) - height(right[node]);
+		if (bf > 1){
+			int l = left[node];
+			if (height(left[l]) < height(right[l])){
+				left[node] = rotateLeft(l);
+			}
+			return rotateRight(node);
+		} else if (bf < -1){
+			int r = right[node];
+			if (height(right[r]) < height(left[r])){
+				right[node] = rotateRight(r);
+			}
+			return rotateLeft(node);
+		}
+		return node;
+	}
+
+	private void update(int node){
+		height[node] = Math.max(height(left[node]), height(right[node])) + 1;
+	}
+
+	private int rotateRight(int node){
+		int l = left[node];
+		left[node] = right[l];
+		right[l] = node;
+		update(node);
+		update(l);
+		return l;
+	}
+
+	private int rotateLeft(int node){
+		int r = right[node];
+		right[node] = left[r];
+		left[r] = node;
+		update(node);
+		update(r);
+		return r;
+	}
+
+	/**
+	 * Checks for the given item in the tree.
+	 * @param item the item to look for
+	 * @return true if item is in tree, false otherwise
+	 */
+	public boolean contains(E item){
+		if (item == null){
+			throw new IllegalArgumentException();
+		}
+		int node = root;
+		while (node != NIL){
+			int cmp = item.compareTo(data[node]);
+			if (cmp < 0){
+				node = left[node];
+			} else if (cmp > 0){
+				node = right[node];
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * returns the maximum element held in the tree.  null if tree is empty.
+	 * @return maximum item or null if empty
+	 */
+	public E max(){
+		if (root == NIL){
+			return null;
+		}
+		int node = root;
+		while (right[node] != NIL){
+			node = right[node];
+		}
+		return (E) data[node];
+	}
+
+	/**
+	 * @return the minimum element in the tree or null if empty
+	 */
+	public E min(){
+		if (root == NIL){
+			return null;
+		}
+		int node = root;
+		while (left[node] != NIL){
+			node = left[node];
+		}
+		return (E) data[node];
+	}
+
+	/**
+	 * returns the number of items in the tree
+	 * @return
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 *
+	 * @return true if tree has no elements, false if tree has anything in it.
+	 */
+	public boolean isEmpty(){
+		return count == 0;
+	}
+
+	/**
+	 * returns an iterator over this collection
+	 * iterator is based on an in-order traversal
+	 */
+	public Iterator<E> iterator(){
+		return new ArrayAVLIterator();
+	}
+
+	/**
+	 * @return a list of the data in in-order traversal order
+	 */
+	public List<E> getInOrder(){
+		List<E> myList = new ArrayList<E>(count);
+		for (E item : this){
+			myList.add(item);
+		}
+		return myList;
+	}
+
+	/**
+	 * @return a list of the data in post-order traversal order
+	 */
+	public List<E> getPostOrder(){
+		List<E> myList = new ArrayList<E>(count);
+		return postOrderHelper(root, myList);
+	}
+
+	private List<E> postOrderHelper(int node, List<E> myList){
+		if (node != NIL){
+			postOrderHelper(left[node], myList);
+			postOrderHelper(right[node], myList);
+			myList.add((E) data[node]);
+		}
+		return myList;
+	}
+
+	/**
+	 *
+	 * @return a list of the data in level-order traversal order
+	 */
+	public List<E> getLevelOrder(){
+		List<E> list = new ArrayList<E>(count);
+		if (root == NIL){
+			return list;
+		}
+		// the nodes of each level queue up behind the previous one
+		int[] queue = new int[count];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = root;
+		while (head < tail){
+			int node = queue[head++];
+			if (left[node] != NIL){
+				queue[tail++] = left[node];
+			}
+			if (right[node] != NIL){
+				queue[tail++] = right[node];
+			}
+			list.add((E) data[node]);
+		}
+		return list;
+	}
+
+	/**
+	 * @return a list of the data in pre-order traversal order
+	 */
+	public List<E> getPreOrder(){
+		List<E> myList = new ArrayList<E>(count);
+		return preOrderHelper(root, myList);
+	}
+
+	private List<E> preOrderHelper(int node, List<E> myList){
+		if (node != NIL){
+			myList.add((E) data[node]);
+			preOrderHelper(left[node], myList);
+			preOrderHelper(right[node], myList);
+		}
+		return myList;
+	}
+
+	/**
+	 * Removes all the elements from this tree, keeping the arrays
+	 */
+	public void clear(){
+		Arrays.fill(data, 0, used, null);
+		root = NIL;
+		count = 0;
+		used = 0;
+		free = NIL;
+		modCount++;
+	}
+}
@@ -0,0 +1,272 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+/**
+ * ArrayAVLTree checked against a TreeSet holding the same elements, and
+ * its traversals against the tree they describe.
+ */
+public class ArrayAVLTreeTest {
+
+    /**
+     * A plain node, for rebuilding the tree's shape from its pre-order.
+     */
+    private static class Shape {
+        int key;
+        Shape left;
+        Shape right;
+
+        Shape(int key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Inserting a binary search tree's pre-order into an empty tree, with
+     * no balancing, gives back the same tree.
+     */
+    private static Shape shape(List<Integer> preOrder) {
+        Shape root = null;
+        for (int key : preOrder) {
+            Shape node = new Shape(key);
+            if (root == null) {
+                root = node;
+                continue;
+            }
+            Shape parent = root;
+            while (true) {
+                if (key < parent.key) {
+                    if (parent.left == null) {
+                        parent.left = node;
+                        break;
+                    }
+                    parent = parent.left;
+                } else {
+                    if (parent.right == null) {
+                        parent.right = node;
+                        break;
+                    }
+                    parent = parent.right;
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @return the height of the subtree, failing if it is out of balance
+     */
+    private static int checkBalanced(Shape node) {
+        if (node == null) {
+            return 0;
+        }
+        int left = checkBalanced(node.left);
+        int right = checkBalanced(node.right);
+        assertTrue("unbalanced at " + node.key, Math.abs(left - right) <= 1);
+        return Math.max(left, right) + 1;
+    }
+
+    private static void postOrder(Shape node, List<Integer> order) {
+        if (node != null) {
+            postOrder(node.left, order);
+            postOrder(node.right, order);
+            order.add(node.key);
+        }
+    }
+
+    private static List<Integer> levelOrder(Shape root) {
+        List<Integer> order = new ArrayList<Integer>();
+        Deque<Shape> queue = new ArrayDeque<Shape>();
+        if (root != null) {
+            queue.add(root);
+        }
+        while (!queue.isEmpty()) {
+            Shape node = queue.remove();
+            order.add(node.key);
+            if (node.left != null) {
+                queue.add(node.left);
+            }
+            if (node.right != null) {
+                queue.add(node.right);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Checks the elements and the traversals, and that the tree is an AVL
+     * tree.
+     */
+    private static void check(TreeSet<Integer> expected, ArrayAVLTree<Integer> tree) {
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected.isEmpty(), tree.isEmpty());
+        assertEquals(new ArrayList<Integer>(expected), tree.getInOrder());
+        assertEquals(expected.isEmpty() ? null : expected.first(), tree.min());
+        assertEquals(expected.isEmpty() ? null : expected.last(), tree.max());
+        Shape root = shape(tree.getPreOrder());
+        checkBalanced(root);
+        List<Integer> post = new ArrayList<Integer>();
+        postOrder(root, post);
+        assertEquals(post, tree.getPostOrder());
+        assertEquals(levelOrder(root), tree.getLevelOrder());
+    }
+
+    @Test
+    public void testAddRemoveMatchesTreeSet() {
+        Random random = new Random(1);
+        ArrayAVLTree<Integer> tree = new ArrayAVLTree<Integer>(1);
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 200; i++) {
+                int key = random.nextInt(1000);
+                assertEquals(set.add(key), tree.add(key));
+            }
+            for (int i = 0; i < 150; i++) {
+                int key = random.nextInt(1000);
+                assertEquals(set.remove(key), tree.remove(key));
+            }
+            check(set, tree);
+            for (int key = -1; key < 1001; key++) {
+                assertEquals("contains " + key, set.contains(key), tree.contains(key));
+            }
+        }
+    }
+
+    /**
+     * Ascending and descending runs are the worst case for an unbalanced
+     * tree.
+     */
+    @Test
+    public void testSequentialKeysStayBalanced() {
+        ArrayAVLTree<Integer> tree = new ArrayAVLTree<Integer>();
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            tree.add(i);
+            tree.add(-i);
+            set.add(i);
+            set.add(-i);
+        }
+        check(set, tree);
+        for (int i = 0; i < 1000; i += 2) {
+            tree.remove(i);
+            set.remove(i);
+        }
+        check(set, tree);
+    }
+
+    @Test
+    public void testNulls() {
+        ArrayAVLTree<Integer> tree = new ArrayAVLTree<Integer>();
+        assertFalse(tree.add(null));
+        assertFalse(tree.remove(null));
+        assertTrue(tree.isEmpty());
+        assertNull(tree.min());
+        assertNull(tree.max());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testContainsNull() {
+        new ArrayAVLTree<Integer>().contains(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCapacity() {
+        new ArrayAVLTree<Integer>(-1);
+    }
+
+    /**
+     * Slots freed by remove and by clear are reused, and what was in them
+     * before does not come back.
+     */
+    @Test
+    public void testSlotReuse() {
+        ArrayAVLTree<Integer> tree = new ArrayAVLTree<Integer>(4);
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            tree.add(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(tree.remove(i));
+        }
+        check(set, tree);
+        for (int i = 100; i < 150; i++) {
+            tree.add(i);
+            set.add(i);
+        }
+        check(set, tree);
+        tree.clear();
+        set.clear();
+        check(set, tree);
+        for (int i = 200; i < 220; i++) {
+            tree.add(i);
+            set.add(i);
+        }
+        check(set, tree);
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Random random = new Random(2);
+        for (int round = 0; round < 100; round++) {
+            ArrayAVLTree<Integer> tree = new ArrayAVLTree<Integer>();
+            TreeSet<Integer> set = new TreeSet<Integer>();
+            for (int i = random.nextInt(200); i > 0; i--) {
+                int key = random.nextInt(300);
+                tree.add(key);
+                set.add(key);
+            }
+            Iterator<Integer> iter = tree.iterator();
+            Iterator<Integer> expected = set.iterator();
+            while (expected.hasNext()) {
+                assertTrue(iter.hasNext());
+                assertEquals(expected.next(), iter.next());
+                if (random.nextInt(3) == 0) {
+                    iter.remove();
+                    expected.remove();
+                }
+            }
+            assertFalse(iter.hasNext());
+            check(set, tree);
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIteratorRemoveTwice() {
+        ArrayAVLTree<Integer> tree = new ArrayAVLTree<Integer>();
+        tree.add(1);
+        tree.add(2);
+        Iterator<Integer> iter = tree.iterator();
+        iter.next();
+        iter.remove();
+        iter.remove();
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testIteratorConcurrentModification() {
+        ArrayAVLTree<Integer> tree = new ArrayAVLTree<Integer>();
+        tree.add(1);
+        tree.add(2);
+        Iterator<Integer> iter = tree.iterator();
+        iter.next();
+        tree.remove(2);
+        iter.next();
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testIteratorAfterClear() {
+        ArrayAVLTree<Integer> tree = new ArrayAVLTree<Integer>();
+        tree.add(1);
+        Iterator<Integer> iter = tree.iterator();
+        tree.clear();
+        iter.next();
+    }
+}
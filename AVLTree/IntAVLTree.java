@@ -0,0 +1,456 @@
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An AVL tree of primitive int keys, laid out like LongAVLTree with the
+ * keys in an int array.
+ */
+public class IntAVLTree {
+
+	/*
+	 * Index standing for a missing child or an empty tree.
+	 */
+	private static final int NIL = -1;
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private int[] left;
+	private int[] right;
+	private int[] height;
+	private int[] keys;
+	private int root = NIL;
+	private int count = 0;
+	/*
+	 * Slots below used have been handed out at least once; those not in
+	 * the tree are on the free list starting at free.
+	 */
+	private int used = 0;
+	private int free = NIL;
+	private int modCount = 0;
+	private boolean changed = false;
+
+	public IntAVLTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity the number of keys to make room for
+	 */
+	public IntAVLTree(int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException();
+		}
+		initialCapacity = Math.max(1, initialCapacity);
+		left = new int[initialCapacity];
+		right = new int[initialCapacity];
+		height = new int[initialCapacity];
+		keys = new int[initialCapacity];
+	}
+
+	/**
+	 * Private inner iterator class. Keeps the path of nodes still to be
+	 * visited on an int stack no deeper than the tree.
+	 */
+	private class IntAVLIterator implements PrimitiveIterator.OfInt{
+		private int[] stack = new int[height(root)];
+		private int depth = 0;
+		private int last;
+		private boolean canRemove = false;
+		private int expectedModCount = modCount;
+
+		private IntAVLIterator(){
+			pushPath(root);
+		}
+
+		private void pushPath(int node){
+			while (node != NIL){
+				stack[depth++] = node;
+				node = left[node];
+			}
+		}
+
+		public boolean hasNext(){
+			return depth > 0;
+		}
+
+		public int nextInt(){
+			if (modCount != expectedModCount){
+				throw new ConcurrentModificationException();
+			}
+			if (depth == 0){
+				throw new NoSuchElementException();
+			}
+			int node = stack[--depth];
+			pushPath(right[node]);
+			last = keys[node];
+			canRemove = true;
+			return last;
+		}
+
+		/**
+		 * Removes the last key returned, then rebuilds the stack by
+		 * searching for the keys after it, as removal rotates nodes.
+		 */
+		public void remove(){
+			if (!canRemove){
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount){
+				throw new ConcurrentModificationException();
+			}
+			IntAVLTree.this.remove(last);
+			stack = new int[height(root)];
+			depth = 0;
+			int node = root;
+			while (node != NIL){
+				if (last < keys[node]){
+					stack[depth++] = node;
+					node = left[node];
+				} else {
+					node = right[node];
+				}
+			}
+			canRemove = false;
+			expectedModCount = modCount;
+		}
+	}
+
+	private int height(int node){
+		return node == NIL ? 0 : height[node];
+	}
+
+	/**
+	 * Take a slot from the free list, or the next unused one. The caller
+	 * makes sure there is room.
+	 */
+	private int allocate(int key){
+		int node;
+		if (free != NIL){
+			node = free;
+			free = left[node];
+		} else {
+			node = used++;
+		}
+		left[node] = NIL;
+		right[node] = NIL;
+		height[node] = 1;
+		keys[node] = key;
+		return node;
+	}
+
+	private void release(int node){
+		left[node] = free;
+		free = node;
+	}
+
+	private void grow(){
+		int capacity = keys.length * 2;
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		height = Arrays.copyOf(height, capacity);
+		keys = Arrays.copyOf(keys, capacity);
+	}
+
+	/**
+	 * Adds the key to the tree.  Duplicate keys are not added.
+	 *
+	 * @param key the key to add
+	 * @return true if key added, false if it was already there
+	 */
+	public boolean add(int key){
+		// grow before descending, as the helper stores into the arrays on its way back up
+		if (free == NIL && used == keys.length){
+			grow();
+		}
+		root = addHelper(root, key);
+		if (changed){
+			changed = false;
+			modCount++;
+			return true;
+		}
+		return false;
+	}
+
+	private int addHelper(int node, int key){
+		if (node == NIL){
+			changed = true;
+			count++;
+			return allocate(key);
+		}
+		if (key < keys[node]){
+			left[node] = addHelper(left[node], key);
+		} else if (key > keys[node]){
+			right[node] = addHelper(right[node], key);
+		} else {
+			return node;
+		}
+		return rebalance(node);
+	}
+
+	/**
+	 * removes the given key from the tree
+	 * @param key the key to remove
+	 * @return true if key removed, false if key not found
+	 */
+	public boolean remove(int key){
+		root = removeHelper(root, key);
+		if (changed){
+			changed = false;
+			modCount++;
+			return true;
+		}
+		return false;
+	}
+
+	private int removeHelper(int node, int key){
+		if (node == NIL){
+			return NIL;
+		}
+		if (key < keys[node]){
+			left[node] = removeHelper(left[node], key);
+		} else if (key > keys[node]){
+			right[node] = removeHelper(right[node], key);
+		} else {
+			changed = true;
+			count--;
+			if (left[node] == NIL || right[node] == NIL){
+				int child = left[node] == NIL ? right[node] : left[node];
+				release(node);
+				return child;
+			}
+			// move the successor's slot into the removed node's place
+			int successor = right[node];
+			while (left[successor] != NIL){
+				successor = left[successor];
+			}
+			right[successor] = removeMin(right[node]);
+			left[successor] = left[node];
+			release(node);
+			node = successor;
+		}
+		return rebalance(node);
+	}
+
+	/**
+	 * Unlink the smallest node of the subtree, leaving its slot alone.
+	 * @return the new root of the subtree
+	 */
+	private int removeMin(int node){
+		if (left[node] == NIL){
+			return right[node];
+		}
+		left[node] = removeMin(left[node]);
+		return rebalance(node);
+	}
+
+	/**
+	 * Update the node's height and rotate it if its children's heights
+	 * differ by more than one.
+	 * @return the new root of the subtree
+	 */
+	private int rebalance(int node){
+		update(node);
+		int bf = height(left[node]) - height(right[node]);
+		if (bf > 1){
+			int l = left[node];
+			if (height(left[l]) < height(right[l])){
+				left[node] = rotateLeft(l);
+			}
+			return rotateRight(node);
+		} else if (bf < -1){
+			int r = right[node];
+			if (height(right[r]) < height(left[r])){
+				right[node] = rotateRight(r);
+			}
+			return rotateLeft(node);
+		}
+		return node;
+	}
+
+	private void update(int node){
+		height[node] = Math.max(height(left[node]), height(right[node])) + 1;
+	}
+
+	private int rotateRight(int node){
+		int l = left[node];
+		left[node] = right[l];
+		right[l] = node;
+		update(node);
+		update(l);
+		return l;
+	}
+
+	private int rotateLeft(int node){
+		int r = right[node];
+		right[node] = left[r];
+		left[r] = node;
+		update(node);
+		update(r);
+		return r;
+	}
+
+	/**
+	 * Checks for the given key in the tree.
+	 * @param key the key to look for
+	 * @return true if key is in tree, false otherwise
+	 */
+	public boolean contains(int key){
+		int node = root;
+		while (node != NIL){
+			if (key < keys[node]){
+				node = left[node];
+			} else if (key > keys[node]){
+				node = right[node];
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Throw a NoSuchElementException if the tree is empty.
+	 * @return the maximum key held in the tree
+	 */
+	public int max(){
+		if (root == NIL){
+			throw new NoSuchElementException();
+		}
+		int node = root;
+		while (right[node] != NIL){
+			node = right[node];
+		}
+		return keys[node];
+	}
+
+	/**
+	 * Throw a NoSuchElementException if the tree is empty.
+	 * @return the minimum key held in the tree
+	 */
+	public int min(){
+		if (root == NIL){
+			throw new NoSuchElementException();
+		}
+		int node = root;
+		while (left[node] != NIL){
+			node = left[node];
+		}
+		return keys[node];
+	}
+
+	/**
+	 * returns the number of keys in the tree
+	 * @return
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 *
+	 * @return true if tree has no keys, false if tree has anything in it.
+	 */
+	public boolean isEmpty(){
+		return count == 0;
+	}
+
+	/**
+	 * returns an iterator over the keys in ascending order
+	 */
+	public PrimitiveIterator.OfInt iterator(){
+		return new IntAVLIterator();
+	}
+
+	/**
+	 * @return the keys in in-order traversal order
+	 */
+	public int[] getInOrder(){
+		int[] order = new int[count];
+		int i = 0;
+		for (PrimitiveIterator.OfInt iter = iterator(); iter.hasNext();){
+			order[i++] = iter.nextInt();
+		}
+		return order;
+	}
+
+	/**
+	 * @return the keys in post-order traversal order
+	 */
+	public int[] getPostOrder(){
+		int[] order = new int[count];
+		postOrderHelper(root, order, 0);
+		return order;
+	}
+
+	/**
+	 * @return the position after the last key written
+	 */
+	private int postOrderHelper(int node, int[] order, int i){
+		if (node != NIL){
+			i = postOrderHelper(left[node], order, i);
+			i = postOrderHelper(right[node], order, i);
+			order[i++] = keys[node];
+		}
+		return i;
+	}
+
+	/**
+	 *
+	 * @return the keys in level-order traversal order
+	 */
+	public int[] getLevelOrder(){
+		int[] order = new int[count];
+		if (root == NIL){
+			return order;
+		}
+		// the nodes of each level queue up behind the previous one
+		int[] queue = new int[count];
+		int head = 0;
+		int tail = 0;
+		queue[tail++] = root;
+		while (head < tail){
+			int node = queue[head];
+			if (left[node] != NIL){
+				queue[tail++] = left[node];
+			}
+			if (right[node] != NIL){
+				queue[tail++] = right[node];
+			}
+			order[head++] = keys[node];
+		}
+		return order;
+	}
+
+	/**
+	 * @return the keys in pre-order traversal order
+	 */
+	public int[] getPreOrder(){
+		int[] order = new int[count];
+		preOrderHelper(root, order, 0);
+		return order;
+	}
+
+	/**
+	 * @return the position after the last key written
+	 */
+	private int preOrderHelper(int node, int[] order, int i){
+		if (node != NIL){
+			order[i++] = keys[node];
+			i = preOrderHelper(left[node], order, i);
+			i = preOrderHelper(right[node], order, i);
+		}
+		return i;
+	}
+
+	/**
+	 * Removes all the keys from this tree, keeping the arrays
+	 */
+	public void clear(){
+		root = NIL;
+		count = 0;
+		used = 0;
+		free = NIL;
+		modCount++;
+	}
+}
@@ -0,0 +1,443 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+import org.junit.Test;
+
+/**
+ * IntAVLTree checked against a TreeSet holding the same keys, and its
+ * traversals against the tree they describe.
+ */
+public class IntAVLTreeTest {
+
+    /**
+     * A plain node, for rebuilding the tree's shape from its pre-order.
+     */
+    private static class Shape {
+        int key;
+        Shape left;
+        Shape right;
+
+        Shape(int key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Inserting a binary search tree's pre-order into an empty tree, with
+     * no balancing, gives back the same tree.
+     */
+    private static Shape shape(int[] preOrder) {
+        Shape root = null;
+        for (int key : preOrder) {
+            Shape node = new Shape(key);
+            if (root == null) {
+                root = node;
+                continue;
+            }
+            Shape parent = root;
+            while (true) {
+                if (key < parent.key) {
+                    if (parent.left == null) {
+                        parent.left = node;
+                        break;
+                    }
+                    parent = parent.left;
+                } else {
+                    if (parent.right == null) {
+                        parent.right = node;
+                        break;
+                    }
+                    parent = parent.right;
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @return the height of the subtree, failing if it is out of balance
+     */
+    private static int checkBalanced(Shape node) {
+        if (node == null) {
+            return 0;
+        }
+        int left = checkBalanced(node.left);
+        int right = checkBalanced(node.right);
+        assertTrue("unbalanced at " + node.key, Math.abs(left - right) <= 1);
+        return Math.max(left, right) + 1;
+    }
+
+    /**
+     * @return the position after the last key written
+     */
+    private static int postOrder(Shape node, int[] order, int i) {
+        if (node != null) {
+            i = postOrder(node.left, order, i);
+            i = postOrder(node.right, order, i);
+            order[i++] = node.key;
+        }
+        return i;
+    }
+
+    private static int[] levelOrder(Shape root, int size) {
+        int[] order = new int[size];
+        int i = 0;
+        Deque<Shape> queue = new ArrayDeque<Shape>();
+        if (root != null) {
+            queue.add(root);
+        }
+        while (!queue.isEmpty()) {
+            Shape node = queue.remove();
+            order[i++] = node.key;
+            if (node.left != null) {
+                queue.add(node.left);
+            }
+            if (node.right != null) {
+                queue.add(node.right);
+            }
+        }
+        return order;
+    }
+
+    private static int[] toArray(TreeSet<Integer> set) {
+        int[] keys = new int[set.size()];
+        int i = 0;
+        for (int key : set) {
+            keys[i++] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Checks the keys and the traversals, and that the tree is an AVL tree.
+     */
+    private static void check(TreeSet<Integer> expected, IntAVLTree tree) {
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected.isEmpty(), tree.isEmpty());
+        assertArrayEquals(toArray(expected), tree.getInOrder());
+        if (!expected.isEmpty()) {
+            assertEquals((int) expected.first(), tree.min());
+            assertEquals((int) expected.last(), tree.max());
+        }
+        Shape root = shape(tree.getPreOrder());
+        checkBalanced(root);
+        int[] post = new int[expected.size()];
+        postOrder(root, post, 0);
+        assertArrayEquals(post, tree.getPostOrder());
+        assertArrayEquals(levelOrder(root, expected.size()), tree.getLevelOrder());
+    }
+
+    @Test
+    public void testAddRemoveMatchesTreeSet() {
+        Random random = new Random(1);
+        IntAVLTree tree = new IntAVLTree(1);
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 200; i++) {
+                int key = random.nextInt(1000);
+                assertEquals(set.add(key), tree.add(key));
+            }
+            for (int i = 0; i < 150; i++) {
+                int key = random.nextInt(1000);
+                assertEquals(set.remove(key), tree.remove(key));
+            }
+            check(set, tree);
+            for (int key = -1; key < 1001; key++) {
+                assertEquals("contains " + key, set.contains(key), tree.contains(key));
+            }
+        }
+    }
+
+    /**
+     * Keys are compared directly, so keys far apart order correctly where
+     * a subtraction would overflow.
+     */
+    @Test
+    public void testExtremeKeys() {
+        IntAVLTree tree = new IntAVLTree();
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        int[] keys = {Integer.MIN_VALUE, Integer.MAX_VALUE, 0, -1, 1, Integer.MIN_VALUE + 1, Integer.MAX_VALUE - 1};
+        for (int key : keys) {
+            assertTrue(tree.add(key));
+            set.add(key);
+        }
+        check(set, tree);
+        assertFalse(tree.add(Integer.MIN_VALUE));
+        assertTrue(tree.contains(Integer.MAX_VALUE));
+        assertFalse(tree.contains(2));
+    }
+
+    @Test
+    public void testSequentialKeysStayBalanced() {
+        IntAVLTree tree = new IntAVLTree();
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            tree.add(i);
+            tree.add(-i);
+            set.add(i);
+            set.add(-i);
+        }
+        check(set, tree);
+        for (int i = 0; i < 1000; i += 2) {
+            tree.remove(i);
+            set.remove(i);
+        }
+        check(set, tree);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMinEmpty() {
+        new IntAVLTree().min();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMaxEmpty() {
+        IntAVLTree tree = new IntAVLTree();
+        tree.add(1);
+        tree.remove(1);
+        tree.max();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCapacity() {
+        new IntAVLTree(-1);
+    }
+
+    /**
+     * Slots freed by remove and by clear are reused.
+     */
+    @Test
+    public void testSlotReuse() {
+        IntAVLTree tree = new IntAVLTree(4);
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            tree.add(i);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertTrue(tree.remove(i));
+        }
+        check(set, tree);
+        for (int i = 100; i < 150; i++) {
+            tree.add(i);
+            set.add(i);
+        }
+        check(set, tree);
+        tree.clear();
+        set.clear();
+        check(set, tree);
+        for (int i = 200; i < 220; i++) {
+            tree.add(i);
+            set.add(i);
+        }
+        check(set, tree);
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Random random = new Random(2);
+        for (int round = 0; round < 100; round++) {
+            IntAVLTree tree = new IntAVLTree();
+            TreeSet<Integer> set = new TreeSet<Integer>();
+            for (int i = random.nextInt(200); i > 0; i--) {
+                int key = random.nextInt(300);
+                tree.add(key);
+                set.add(key);
+            }
+            PrimitiveIterator.OfInt iter = tree.iterator();
+            Iterator<Integer> expected = set.iterator();
+            while (expected.hasNext()) {
+                assertTrue(iter.hasNext());
+                assertEquals((int) expected.next(), iter.nextInt());
+                if (random.nextInt(3) == 0) {
+                    iter.remove();
+                    expected.remove();
+                }
+            }
+            assertFalse(iter.hasNext());
+            check(set, tree);
+        }
+    }
+
+    /**
+     * Key 0 is removable like any other, even though it is the value the
+     * iterator starts out holding.
+     */
+    @Test
+    public void testIteratorRemoveZero() {
+        IntAVLTree tree = new IntAVLTree();
+        tree.add(0);
+        tree.add(1);
+        PrimitiveIterator.OfInt iter = tree.iterator();
+        assertEquals(0, iter.nextInt());
+        iter.remove();
+        assertFalse(tree.contains(0));
+        assertEquals(1, iter.nextInt());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIteratorRemoveBeforeNext() {
+        IntAVLTree tree = new IntAVLTree();
+        tree.add(0);
+        tree.iterator().remove();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIteratorRemoveTwice() {
+        IntAVLTree tree = new IntAVLTree();
+        tree.add(1);
+        tree.add(2);
+        PrimitiveIterator.OfInt iter = tree.iterator();
+        iter.nextInt();
+        iter.remove();
+        iter.remove();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIteratorPastEnd() {
+        IntAVLTree tree = new IntAVLTree();
+        tree.add(1);
+        PrimitiveIterator.OfInt iter = tree.iterator();
+        iter.nextInt();
+        iter.nextInt();
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testIteratorConcurrentModification() {
+        IntAVLTree tree = new IntAVLTree();
+        tree.add(1);
+        tree.add(2);
+        PrimitiveIterator.OfInt iter = tree.iterator();
+        iter.nextInt();
+        tree.add(3);
+        iter.nextInt();
+    }
+
+    /**
+     * Keys packed against both ends of the int range, where a comparison
+     * by subtraction gets every cross-end pair backwards.
+     */
+    @Test
+    public void testKeysPackedAtBothExtremes() {
+        IntAVLTree tree = new IntAVLTree();
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            int low = Integer.MIN_VALUE + i * 2;
+            int high = Integer.MAX_VALUE - i * 2;
+            tree.add(low);
+            tree.add(high);
+            set.add(low);
+            set.add(high);
+        }
+        check(set, tree);
+        // the odd offsets between the stored keys are all absent
+        for (int i = 0; i < 100; i++) {
+            assertFalse(tree.contains(Integer.MIN_VALUE + i * 2 + 1));
+            assertFalse(tree.contains(Integer.MAX_VALUE - i * 2 - 1));
+        }
+        assertFalse(tree.contains(0));
+        assertTrue(tree.remove(Integer.MIN_VALUE));
+        assertTrue(tree.remove(Integer.MAX_VALUE));
+        assertEquals(Integer.MIN_VALUE + 2, tree.min());
+        assertEquals(Integer.MAX_VALUE - 2, tree.max());
+        assertFalse(tree.contains(Integer.MIN_VALUE));
+        assertFalse(tree.contains(Integer.MAX_VALUE));
+    }
+
+    /**
+     * The first and last keys removed through the iterator are the
+     * extremes.
+     */
+    @Test
+    public void testIteratorRemovesExtremes() {
+        IntAVLTree tree = new IntAVLTree();
+        int[] keys = {Integer.MAX_VALUE, 7, Integer.MIN_VALUE, -7, 0};
+        for (int key : keys) {
+            tree.add(key);
+        }
+        PrimitiveIterator.OfInt iter = tree.iterator();
+        assertEquals(Integer.MIN_VALUE, iter.nextInt());
+        iter.remove();
+        int last = 0;
+        while (iter.hasNext()) {
+            last = iter.nextInt();
+        }
+        assertEquals(Integer.MAX_VALUE, last);
+        iter.remove();
+        assertArrayEquals(new int[] {-7, 0, 7}, tree.getInOrder());
+    }
+
+    @Test
+    public void testFullRangeKeys() {
+        Random random = new Random(4);
+        IntAVLTree tree = new IntAVLTree(16);
+        TreeSet<Integer> set = new TreeSet<Integer>();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 500; i++) {
+                int key = random.nextInt();
+                assertEquals(set.add(key), tree.add(key));
+            }
+            Iterator<Integer> doomed = set.iterator();
+            while (doomed.hasNext()) {
+                int key = doomed.next();
+                if (random.nextBoolean()) {
+                    assertTrue(tree.remove(key));
+                    doomed.remove();
+                }
+            }
+            check(set, tree);
+        }
+    }
+
+    /**
+     * next boxes what nextInt returns, and forEachRemaining, with an
+     * IntConsumer or a boxed Consumer, visits what is left after some
+     * nextInt calls and a remove.
+     */
+    @Test
+    public void testIteratorNextIntAgreesWithBoxedNext() {
+        IntAVLTree tree = new IntAVLTree();
+        for (int key = -3; key <= 3; key++) {
+            tree.add(key * 1000);
+        }
+        tree.add(Integer.MIN_VALUE);
+        tree.add(Integer.MAX_VALUE);
+        int[] inOrder = tree.getInOrder();
+        PrimitiveIterator.OfInt boxed = tree.iterator();
+        for (int key : inOrder) {
+            Integer next = boxed.next();
+            assertEquals(Integer.valueOf(key), next);
+        }
+        assertFalse(boxed.hasNext());
+
+        PrimitiveIterator.OfInt iter = tree.iterator();
+        iter.nextInt();
+        iter.nextInt();
+        iter.remove();
+        final int[] seen = new int[inOrder.length];
+        final int[] count = new int[1];
+        iter.forEachRemaining((IntConsumer) key -> seen[count[0]++] = key);
+        assertArrayEquals(Arrays.copyOfRange(inOrder, 2, inOrder.length), Arrays.copyOf(seen, count[0]));
+        assertFalse(tree.contains(inOrder[1]));
+
+        iter = tree.iterator();
+        iter.nextInt();
+        final List<Integer> rest = new ArrayList<Integer>();
+        Consumer<Integer> boxedAdd = rest::add;
+        iter.forEachRemaining(boxedAdd);
+        assertEquals(Arrays.asList(-2000, -1000, 0, 1000, 2000, 3000, Integer.MAX_VALUE), rest);
+        assertFalse(iter.hasNext());
+    }
+}
@@ -0,0 +1,436 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import org.junit.Test;
+
+/**
+ * LongAVLTree checked against a TreeSet holding the same keys, and its
+ * traversals against the tree they describe.
+ */
+public class LongAVLTreeTest {
+
+    /**
+     * A plain node, for rebuilding the tree's shape from its pre-order.
+     */
+    private static class Shape {
+        long key;
+        Shape left;
+        Shape right;
+
+        Shape(long key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Inserting a binary search tree's pre-order into an empty tree, with
+     * no balancing, gives back the same tree.
+     */
+    private static Shape shape(long[] preOrder) {
+        Shape root = null;
+        for (long key : preOrder) {
+            Shape node = new Shape(key);
+            if (root == null) {
+                root = node;
+                continue;
+            }
+            Shape parent = root;
+            while (true) {
+                if (key < parent.key) {
+                    if (parent.left == null) {
+                        parent.left = node;
+                        break;
+                    }
+                    parent = parent.left;
+                } else {
+                    if (parent.right == null) {
+                        parent.right = node;
+                        break;
+                    }
+                    parent = parent.right;
+                }
+            }
+        }
+        return root;
+    }
+
+    /**
+     * @return the height of the subtree, failing if it is out of balance
+     */
+    private static int checkBalanced(Shape node) {
+        if (node == null) {
+            return 0;
+        }
+        int left = checkBalanced(node.left);
+        int right = checkBalanced(node.right);
+        assertTrue("unbalanced at " + node.key, Math.abs(left - right) <= 1);
+        return Math.max(left, right) + 1;
+    }
+
+    /**
+     * @return the position after the last key written
+     */
+    private static int postOrder(Shape node, long[] order, int i) {
+        if (node != null) {
+            i = postOrder(node.left, order, i);
+            i = postOrder(node.right, order, i);
+            order[i++] = node.key;
+        }
+        return i;
+    }
+
+    private static long[] levelOrder(Shape root, int size) {
+        long[] order = new long[size];
+        int i = 0;
+        Deque<Shape> queue = new ArrayDeque<Shape>();
+        if (root != null) {
+            queue.add(root);
+        }
+        while (!queue.isEmpty()) {
+            Shape node = queue.remove();
+            order[i++] = node.key;
+            if (node.left != null) {
+                queue.add(node.left);
+            }
+            if (node.right != null) {
+                queue.add(node.right);
+            }
+        }
+        return order;
+    }
+
+    private static long[] toArray(TreeSet<Long> set) {
+        long[] keys = new long[set.size()];
+        int i = 0;
+        for (long key : set) {
+            keys[i++] = key;
+        }
+        return keys;
+    }
+
+    /**
+     * Checks the keys and the traversals, and that the tree is an AVL tree.
+     */
+    private static void check(TreeSet<Long> expected, LongAVLTree tree) {
+        assertEquals(expected.size(), tree.size());
+        assertEquals(expected.isEmpty(), tree.isEmpty());
+        assertArrayEquals(toArray(expected), tree.getInOrder());
+        if (!expected.isEmpty()) {
+            assertEquals((long) expected.first(), tree.min());
+            assertEquals((long) expected.last(), tree.max());
+        }
+        Shape root = shape(tree.getPreOrder());
+        checkBalanced(root);
+        long[] post = new long[expected.size()];
+        postOrder(root, post, 0);
+        assertArrayEquals(post, tree.getPostOrder());
+        assertArrayEquals(levelOrder(root, expected.size()), tree.getLevelOrder());
+    }
+
+    @Test
+    public void testAddRemoveMatchesTreeSet() {
+        Random random = new Random(1);
+        LongAVLTree tree = new LongAVLTree(1);
+        TreeSet<Long> set = new TreeSet<Long>();
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 200; i++) {
+                long key = random.nextInt(1000);
+                assertEquals(set.add(key), tree.add(key));
+            }
+            for (int i = 0; i < 150; i++) {
+                long key = random.nextInt(1000);
+                assertEquals(set.remove(key), tree.remove(key));
+            }
+            check(set, tree);
+            for (long key = -1; key < 1001; key++) {
+                assertEquals("contains " + key, set.contains(key), tree.contains(key));
+            }
+        }
+    }
+
+    /**
+     * Keys are compared directly, so keys far apart order correctly where
+     * a subtraction would overflow.
+     */
+    @Test
+    public void testExtremeKeys() {
+        LongAVLTree tree = new LongAVLTree();
+        TreeSet<Long> set = new TreeSet<Long>();
+        long[] keys = {Long.MIN_VALUE, Long.MAX_VALUE, 0, -1, 1, Long.MIN_VALUE + 1, Long.MAX_VALUE - 1};
+        for (long key : keys) {
+            assertTrue(tree.add(key));
+            set.add(key);
+        }
+        check(set, tree);
+        assertFalse(tree.add(Long.MIN_VALUE));
+        assertTrue(tree.contains(Long.MAX_VALUE));
+        assertFalse(tree.contains(2));
+    }
+
+    @Test
+    public void testSequentialKeysStayBalanced() {
+        LongAVLTree tree = new LongAVLTree();
+        TreeSet<Long> set = new TreeSet<Long>();
+        for (long i = 0; i < 1000; i++) {
+            tree.add(i);
+            tree.add(-i);
+            set.add(i);
+            set.add(-i);
+        }
+        check(set, tree);
+        for (long i = 0; i < 1000; i += 2) {
+            tree.remove(i);
+            set.remove(i);
+        }
+        check(set, tree);
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMinEmpty() {
+        new LongAVLTree().min();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testMaxEmpty() {
+        LongAVLTree tree = new LongAVLTree();
+        tree.add(1);
+        tree.remove(1);
+        tree.max();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeCapacity() {
+        new LongAVLTree(-1);
+    }
+
+    /**
+     * Slots freed by remove and by clear are reused.
+     */
+    @Test
+    public void testSlotReuse() {
+        LongAVLTree tree = new LongAVLTree(4);
+        TreeSet<Long> set = new TreeSet<Long>();
+        for (long i = 0; i < 100; i++) {
+            tree.add(i);
+        }
+        for (long i = 0; i < 100; i++) {
+            assertTrue(tree.remove(i));
+        }
+        check(set, tree);
+        for (long i = 100; i < 150; i++) {
+            tree.add(i);
+            set.add(i);
+        }
+        check(set, tree);
+        tree.clear();
+        set.clear();
+        check(set, tree);
+        for (long i = 200; i < 220; i++) {
+            tree.add(i);
+            set.add(i);
+        }
+        check(set, tree);
+    }
+
+    @Test
+    public void testIteratorRemove() {
+        Random random = new Random(2);
+        for (int round = 0; round < 100; round++) {
+            LongAVLTree tree = new LongAVLTree();
+            TreeSet<Long> set = new TreeSet<Long>();
+            for (int i = random.nextInt(200); i > 0; i--) {
+                long key = random.nextInt(300);
+                tree.add(key);
+                set.add(key);
+            }
+            PrimitiveIterator.OfLong iter = tree.iterator();
+            Iterator<Long> expected = set.iterator();
+            while (expected.hasNext()) {
+                assertTrue(iter.hasNext());
+                assertEquals((long) expected.next(), iter.nextLong());
+                if (random.nextInt(3) == 0) {
+                    iter.remove();
+                    expected.remove();
+                }
+            }
+            assertFalse(iter.hasNext());
+            check(set, tree);
+        }
+    }
+
+    /**
+     * Key 0 is removable like any other, even though it is the value the
+     * iterator starts out holding.
+     */
+    @Test
+    public void testIteratorRemoveZero() {
+        LongAVLTree tree = new LongAVLTree();
+        tree.add(0);
+        tree.add(1);
+        PrimitiveIterator.OfLong iter = tree.iterator();
+        assertEquals(0, iter.nextLong());
+        iter.remove();
+        assertFalse(tree.contains(0));
+        assertEquals(1, iter.nextLong());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIteratorRemoveBeforeNext() {
+        LongAVLTree tree = new LongAVLTree();
+        tree.add(0);
+        tree.iterator().remove();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIteratorRemoveTwice() {
+        LongAVLTree tree = new LongAVLTree();
+        tree.add(1);
+        tree.add(2);
+        PrimitiveIterator.OfLong iter = tree.iterator();
+        iter.nextLong();
+        iter.remove();
+        iter.remove();
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIteratorPastEnd() {
+        LongAVLTree tree = new LongAVLTree();
+        tree.add(1);
+        PrimitiveIterator.OfLong iter = tree.iterator();
+        iter.nextLong();
+        iter.nextLong();
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void testIteratorConcurrentModification() {
+        LongAVLTree tree = new LongAVLTree();
+        tree.add(1);
+        tree.add(2);
+        PrimitiveIterator.OfLong iter = tree.iterator();
+        iter.nextLong();
+        tree.add(3);
+        iter.nextLong();
+    }
+
+    /**
+     * Keys one apart from the extremes, present and absent, beside the
+     * extremes themselves.
+     */
+    @Test
+    public void testExtremeKeysAsProbes() {
+        LongAVLTree tree = new LongAVLTree();
+        tree.add(Long.MIN_VALUE);
+        tree.add(Long.MAX_VALUE);
+        assertEquals(Long.MIN_VALUE, tree.min());
+        assertEquals(Long.MAX_VALUE, tree.max());
+        assertFalse(tree.contains(Long.MIN_VALUE + 1));
+        assertFalse(tree.contains(Long.MAX_VALUE - 1));
+        assertFalse(tree.contains(0));
+        tree.add(Long.MAX_VALUE - 1);
+        assertTrue(tree.remove(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE - 1, tree.max());
+        assertFalse(tree.contains(Long.MAX_VALUE));
+        assertTrue(tree.remove(Long.MIN_VALUE));
+        assertEquals(Long.MAX_VALUE - 1, tree.min());
+        assertFalse(tree.remove(Long.MIN_VALUE));
+    }
+
+    /**
+     * Keys that differ only above bit 31, or that agree with an int key
+     * in their low half, stay distinct: nothing narrows a key to an int.
+     */
+    @Test
+    public void testKeysBeyondIntRange() {
+        LongAVLTree tree = new LongAVLTree();
+        TreeSet<Long> set = new TreeSet<Long>();
+        long[] keys = {1L << 32, 2L << 32, (1L << 32) + 1, -(1L << 32), Integer.MAX_VALUE + 1L,
+                Integer.MIN_VALUE - 1L, 1L << 62, -(1L << 62)};
+        for (long key : keys) {
+            assertTrue(tree.add(key));
+            set.add(key);
+        }
+        check(set, tree);
+        // the low 32 bits of these are 0, 1, 0x80000000 and 0x7fffffff
+        assertFalse(tree.contains(0));
+        assertFalse(tree.contains(1));
+        assertFalse(tree.contains(Integer.MIN_VALUE));
+        assertFalse(tree.contains(Integer.MAX_VALUE));
+        assertTrue(tree.add(0));
+        assertTrue(tree.contains(1L << 32));
+        assertEquals(-(1L << 62), tree.min());
+        assertEquals(1L << 62, tree.max());
+    }
+
+    /**
+     * Random keys over the whole long range, where comparing by
+     * subtraction would overflow for most pairs.
+     */
+    @Test
+    public void testFullRangeKeys() {
+        Random random = new Random(3);
+        LongAVLTree tree = new LongAVLTree();
+        TreeSet<Long> set = new TreeSet<Long>();
+        long[] added = new long[2000];
+        for (int i = 0; i < added.length; i++) {
+            added[i] = random.nextLong();
+            assertEquals(set.add(added[i]), tree.add(added[i]));
+        }
+        for (int i = 0; i < added.length; i += 3) {
+            assertEquals(set.remove(added[i]), tree.remove(added[i]));
+        }
+        check(set, tree);
+        for (int i = 0; i < added.length; i++) {
+            assertEquals(set.contains(added[i]), tree.contains(added[i]));
+        }
+    }
+
+    /**
+     * The boxed next and forEachRemaining give the same keys as nextLong.
+     */
+    @Test
+    public void testIteratorBoxedAndPrimitiveAgree() {
+        LongAVLTree tree = new LongAVLTree();
+        long[] keys = {Long.MIN_VALUE, -5, 0, 5, 1L << 40, Long.MAX_VALUE};
+        for (long key : keys) {
+            tree.add(key);
+        }
+        PrimitiveIterator.OfLong primitive = tree.iterator();
+        PrimitiveIterator.OfLong boxed = tree.iterator();
+        while (primitive.hasNext()) {
+            assertTrue(boxed.hasNext());
+            Long next = boxed.next();
+            assertEquals(primitive.nextLong(), next.longValue());
+        }
+        assertFalse(boxed.hasNext());
+
+        // forEachRemaining picks up where nextLong left off, for both overloads
+        PrimitiveIterator.OfLong iter = tree.iterator();
+        assertEquals(Long.MIN_VALUE, iter.nextLong());
+        final List<Long> rest = new ArrayList<Long>();
+        iter.forEachRemaining((LongConsumer) rest::add);
+        assertEquals(Arrays.asList(-5L, 0L, 5L, 1L << 40, Long.MAX_VALUE), rest);
+        assertFalse(iter.hasNext());
+        iter.forEachRemaining((LongConsumer) key -> fail("exhausted iterator gave " + key));
+
+        iter = tree.iterator();
+        iter.nextLong();
+        iter.nextLong();
+        rest.clear();
+        Consumer<Long> boxedAdd = rest::add;
+        iter.forEachRemaining(boxedAdd);
+        assertEquals(Arrays.asList(0L, 5L, 1L << 40, Long.MAX_VALUE), rest);
+    }
+}
@@ -0,0 +1,692 @@
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe cuckoo hash map.
+ *
+ * Uses the bucketized two table layout of CuckooMap: every key has one
+ * bucket of BUCKET_SLOTS interleaved key/value slots in each table. Buckets
+ * are covered by lock stripes, and every stripe carries a version that is
+ * odd while a writer is changing one of its buckets.
+ *
+ * get and containsKey never lock. They read the versions of the key's two
+ * stripes, scan both buckets, and retry if either version moved. Writers
+ * only lock the two stripes of the key they change. Displacement first
+ * searches for a path to an empty slot without locking, then moves one
+ * resident at a time backwards along it. Each move holds just the two
+ * stripes of the moved key's own buckets, so it excludes every other
+ * operation on that key. A resize locks every stripe of the old table,
+ * copies it, and publishes the new table. Readers keep reading the frozen
+ * old table until the new one is published and are never blocked.
+ *
+ * Null keys and values are not allowed.
+ */
+public class ConcurrentCuckooMap<K, V> extends AbstractMap<K, V> implements ConcurrentMap<K, V> {
+
+	private static final int BUCKET_SLOTS = CuckooMap.BUCKET_SLOTS;
+	private static final double MAX_LOAD_FACTOR = .90;
+	private static final int MAX_STRIPES = 1 << 12;
+	private static final int MAX_SEARCH = 256;
+
+	private final CuckooHashFunction hashFunction;
+	private final Random rand = new Random();
+	private final LongAdder size = new LongAdder();
+	private volatile Table table;
+
+	/**
+	 * One generation of tables. Never changed after a resize has replaced it.
+	 */
+	private static final class Table {
+		final AtomicReferenceArray<Object> slots1;
+		final AtomicReferenceArray<Object> slots2;
+		final long seed1;
+		final long seed2;
+		final int bits;
+		final int stripeMask;
+		final AtomicLongArray versions;
+		final ReentrantLock[] locks;
+
+		Table(int bits, Random rand) {
+			this.bits = bits;
+			slots1 = new AtomicReferenceArray<Object>((BUCKET_SLOTS << bits) * 2);
+			slots2 = new AtomicReferenceArray<Object>((BUCKET_SLOTS << bits) * 2);
+			seed1 = rand.nextLong() | 1L;
+			seed2 = rand.nextLong() | 1L;
+			int stripes = Math.min(MAX_STRIPES, 2 << bits);
+			stripeMask = stripes - 1;
+			versions = new AtomicLongArray(stripes);
+			locks = new ReentrantLock[stripes];
+			for (int i = 0; i < stripes; i++) {
+				locks[i] = new ReentrantLock();
+			}
+		}
+
+		int capacity() {
+			return BUCKET_SLOTS << bits;
+		}
+
+		/**
+		 * Slots are encoded as the key offset within their table, with the
+		 * low bit set for the second table (key offsets are always even).
+		 */
+		AtomicReferenceArray<Object> slots(int slot) {
+			return (slot & 1) == 0 ? slots1 : slots2;
+		}
+
+		/**
+		 * @return the lock stripe covering the bucket an encoded slot is in
+		 */
+		int stripe(int slot) {
+			int bucket = (slot & ~1) / (BUCKET_SLOTS * 2);
+			return ((bucket << 1) | (slot & 1)) & stripeMask;
+		}
+	}
+
+	/**
+	 * @param startSize the number of slots to start with in each table
+	 */
+	public ConcurrentCuckooMap(int startSize) {
+		this(startSize, new MurmurMixHash());
+	}
+
+	/**
+	 * @param startSize the number of slots to start with in each table
+	 * @param hashFunction the hash family used to index both tables
+	 */
+	public ConcurrentCuckooMap(int startSize, CuckooHashFunction hashFunction) {
+		if (startSize < 0 || hashFunction == null) {
+			throw new IllegalArgumentException();
+		}
+		this.hashFunction = hashFunction;
+		int buckets = Math.max(1, (startSize + BUCKET_SLOTS - 1) / BUCKET_SLOTS);
+		table = new Table(32 - Integer.numberOfLeadingZeros(buckets - 1), rand);
+	}
+
+	/**
+	 * @return the encoded first slot of the key's bucket in table1
+	 */
+	private int index1(Table t, int hash) {
+		return hashFunction.index(hash, t.seed1, t.bits) * BUCKET_SLOTS * 2;
+	}
+
+	/**
+	 * @return the encoded first slot of the key's bucket in table2
+	 */
+	private int index2(Table t, int hash) {
+		return (hashFunction.index(hash, t.seed2, t.bits) * BUCKET_SLOTS * 2) | 1;
+	}
+
+	/**
+	 * @return the encoded slot holding the key in the bucket starting at index, or -1
+	 */
+	private static int findKey(Table t, int index, Object key) {
+		AtomicReferenceArray<Object> slots = t.slots(index);
+		int first = index & ~1;
+		for (int slot = first; slot < first + BUCKET_SLOTS * 2; slot += 2) {
+			Object k = slots.get(slot);
+			if (k != null && k.equals(key)) {
+				return slot | (index & 1);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the encoded first empty slot in the bucket starting at index, or -1
+	 */
+	private static int findEmpty(Table t, int index) {
+		AtomicReferenceArray<Object> slots = t.slots(index);
+		int first = index & ~1;
+		for (int slot = first; slot < first + BUCKET_SLOTS * 2; slot += 2) {
+			if (slots.get(slot) == null) {
+				return slot | (index & 1);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Lock the stripes covering two encoded slots in a fixed order.
+	 */
+	private static void lock(Table t, int slotA, int slotB) {
+		int a = t.stripe(slotA);
+		int b = t.stripe(slotB);
+		t.locks[Math.min(a, b)].lock();
+		if (a != b) {
+			t.locks[Math.max(a, b)].lock();
+		}
+	}
+
+	private static void unlock(Table t, int slotA, int slotB) {
+		int a = t.stripe(slotA);
+		int b = t.stripe(slotB);
+		if (a != b) {
+			t.locks[Math.max(a, b)].unlock();
+		}
+		t.locks[Math.min(a, b)].unlock();
+	}
+
+	/**
+	 * Make the versions of the stripes covering two slots odd (or even
+	 * again), telling optimistic readers that their buckets are changing.
+	 * Callers must hold both stripes.
+	 */
+	private static void bumpVersions(Table t, int slotA, int slotB) {
+		int a = t.stripe(slotA);
+		int b = t.stripe(slotB);
+		t.versions.incrementAndGet(a);
+		if (a != b) {
+			t.versions.incrementAndGet(b);
+		}
+	}
+
+	@Override
+	public V get(Object key) {
+		if (key == null) {
+			throw new IllegalArgumentException();
+		}
+		int hash = key.hashCode();
+		while (true) {
+			Table t = table;
+			int index1 = index1(t, hash);
+			int index2 = index2(t, hash);
+			int stripe1 = t.stripe(index1);
+			int stripe2 = t.stripe(index2);
+			long version1 = t.versions.get(stripe1);
+			long version2 = t.versions.get(stripe2);
+			if (((version1 | version2) & 1) != 0) {
+				continue;
+			}
+			Object value = null;
+			int slot = findKey(t, index1, key);
+			if (slot < 0) {
+				slot = findKey(t, index2, key);
+			}
+			if (slot >= 0) {
+				value = t.slots(slot).get((slot & ~1) + 1);
+			}
+			if (t.versions.get(stripe1) == version1 && t.versions.get(stripe2) == version2
+					&& table == t) {
+				return (V) value;
+			}
+		}
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return get(key) != null;
+	}
+
+	@Override
+	public V put(K key, V value) {
+		return put(key, value, false);
+	}
+
+	@Override
+	public V putIfAbsent(K key, V value) {
+		return put(key, value, true);
+	}
+
+	private V put(K key, V value, boolean onlyIfAbsent) {
+		if (key == null || value == null) {
+			throw new IllegalArgumentException();
+		}
+		int hash = key.hashCode();
+		while (true) {
+			Table t = table;
+			int index1 = index1(t, hash);
+			int index2 = index2(t, hash);
+			lock(t, index1, index2);
+			try {
+				if (table != t) {
+					continue;
+				}
+				int slot = findKey(t, index1, key);
+				if (slot < 0) {
+					slot = findKey(t, index2, key);
+				}
+				if (slot >= 0) {
+					AtomicReferenceArray<Object> slots = t.slots(slot);
+					V oldValue = (V) slots.get((slot & ~1) + 1);
+					if (!onlyIfAbsent) {
+						bumpVersions(t, slot, slot);
+						slots.set((slot & ~1) + 1, value);
+						bumpVersions(t, slot, slot);
+					}
+					return oldValue;
+				}
+				slot = findEmpty(t, index1);
+				if (slot < 0) {
+					slot = findEmpty(t, index2);
+				}
+				if (slot >= 0) {
+					AtomicReferenceArray<Object> slots = t.slots(slot);
+					bumpVersions(t, slot, slot);
+					slots.set((slot & ~1) + 1, value);
+					slots.set(slot & ~1, key);
+					bumpVersions(t, slot, slot);
+					size.increment();
+					return null;
+				}
+			} finally {
+				unlock(t, index1, index2);
+			}
+			if (size.sum() > t.capacity() * 2 * MAX_LOAD_FACTOR || !makeRoom(t, index1, index2)) {
+				resize(t);
+			}
+		}
+	}
+
+	/**
+	 * Search breadth first, without locking, from the two full buckets of a
+	 * key for the nearest empty slot, then move residents backwards along
+	 * the path one at a time. Each move locks the two buckets of the key
+	 * being moved and checks that nothing changed since the search.
+	 *
+	 * @return false if no path was found, true if the caller should retry
+	 */
+	private boolean makeRoom(Table t, int index1, int index2) {
+		int[] pathSlots = new int[MAX_SEARCH + BUCKET_SLOTS * 2];
+		int[] pathParents = new int[pathSlots.length];
+		Object[] pathKeys = new Object[pathSlots.length];
+		int tail = 0;
+		for (int i = 0; i < BUCKET_SLOTS * 2; i += 2) {
+			pathSlots[tail] = index1 + i;
+			pathParents[tail++] = -1;
+			pathSlots[tail] = index2 + i;
+			pathParents[tail++] = -1;
+		}
+		for (int head = 0; head < tail && head < MAX_SEARCH; head++) {
+			int node = pathSlots[head];
+			Object occupant = t.slots(node).get(node & ~1);
+			if (occupant == null) {
+				// a slot freed up since the caller looked
+				return true;
+			}
+			pathKeys[head] = occupant;
+			int hash = occupant.hashCode();
+			int alt = (node & 1) == 0 ? index2(t, hash) : index1(t, hash);
+			int empty = findEmpty(t, alt);
+			if (empty >= 0) {
+				for (int from = head; from >= 0; from = pathParents[from]) {
+					if (!moveSlot(t, pathSlots[from], empty, pathKeys[from])) {
+						break;
+					}
+					empty = pathSlots[from];
+				}
+				return true;
+			}
+			for (int i = 0; i < BUCKET_SLOTS * 2 && tail < pathSlots.length; i += 2) {
+				pathSlots[tail] = alt + i;
+				pathParents[tail++] = head;
+			}
+		}
+		return table != t;
+	}
+
+	/**
+	 * Move key from one encoded slot to an empty one in its other bucket.
+	 *
+	 * @return false if the slots no longer look the way the search saw them
+	 */
+	private boolean moveSlot(Table t, int from, int to, Object key) {
+		lock(t, from, to);
+		try {
+			AtomicReferenceArray<Object> fromSlots = t.slots(from);
+			AtomicReferenceArray<Object> toSlots = t.slots(to);
+			if (table != t || fromSlots.get(from & ~1) != key || toSlots.get(to & ~1) != null) {
+				return false;
+			}
+			bumpVersions(t, from, to);
+			toSlots.set((to & ~1) + 1, fromSlots.get((from & ~1) + 1));
+			toSlots.set(to & ~1, key);
+			fromSlots.set(from & ~1, null);
+			fromSlots.set((from & ~1) + 1, null);
+			bumpVersions(t, from, to);
+			return true;
+		} finally {
+			unlock(t, from, to);
+		}
+	}
+
+	/**
+	 * Replace the table with one twice as big. Locks every stripe of the old
+	 * table, so writers wait and then retry against the new one, while
+	 * readers keep reading the frozen old table until the swap.
+	 */
+	private void resize(Table t) {
+		for (int i = 0; i < t.locks.length; i++) {
+			t.locks[i].lock();
+		}
+		try {
+			if (table != t) {
+				return;
+			}
+			int bits = t.bits + 1;
+			Table next;
+			do {
+				next = copy(t, bits++);
+			} while (next == null);
+			table = next;
+		} finally {
+			for (int i = t.locks.length - 1; i >= 0; i--) {
+				t.locks[i].unlock();
+			}
+		}
+	}
+
+	/**
+	 * Insert every entry of a table into a fresh, still private, table.
+	 *
+	 * @return the new table, or null if some insert ran out of kicks
+	 */
+	private Table copy(Table t, int bits) {
+		Table next = new Table(bits, rand);
+		for (int i = 0; i < 2; i++) {
+			AtomicReferenceArray<Object> slots = i == 0 ? t.slots1 : t.slots2;
+			for (int slot = 0; slot < slots.length(); slot += 2) {
+				Object key = slots.get(slot);
+				if (key != null && !insertPrivate(next, key, slots.get(slot + 1))) {
+					return null;
+				}
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * Random walk insert into a table no other thread can see yet.
+	 */
+	private boolean insertPrivate(Table t, Object key, Object value) {
+		int lastSlot = -1;
+		for (int kicks = 0; kicks < MAX_SEARCH; kicks++) {
+			int hash = key.hashCode();
+			int index1 = index1(t, hash);
+			int index2 = index2(t, hash);
+			int slot = findEmpty(t, index1);
+			if (slot < 0) {
+				slot = findEmpty(t, index2);
+			}
+			if (slot >= 0) {
+				t.slots(slot).set(slot & ~1, key);
+				t.slots(slot).set((slot & ~1) + 1, value);
+				return true;
+			}
+			int victim;
+			do {
+				int pick = rand.nextInt(BUCKET_SLOTS * 2);
+				victim = (pick & 1) == 0 ? index1 + pick : index2 + pick - 1;
+			} while (victim == lastSlot);
+			AtomicReferenceArray<Object> slots = t.slots(victim);
+			Object tempKey = slots.get(victim & ~1);
+			Object tempValue = slots.get((victim & ~1) + 1);
+			slots.set(victim & ~1, key);
+			slots.set((victim & ~1) + 1, value);
+			key = tempKey;
+			value = tempValue;
+			lastSlot = victim;
+		}
+		return false;
+	}
+
+	@Override
+	public V remove(Object key) {
+		return remove(key, null, true);
+	}
+
+	@Override
+	public boolean remove(Object key, Object value) {
+		if (value == null) {
+			return false;
+		}
+		return remove(key, value, false) != null;
+	}
+
+	/**
+	 * Remove the key if it is present and, unless any is true, mapped to
+	 * the expected value.
+	 *
+	 * @return the removed value, or null if nothing was removed
+	 */
+	private V remove(Object key, Object expected, boolean any) {
+		if (key == null) {
+			throw new IllegalArgumentException();
+		}
+		int hash = key.hashCode();
+		while (true) {
+			Table t = table;
+			int index1 = index1(t, hash);
+			int index2 = index2(t, hash);
+			lock(t, index1, index2);
+			try {
+				if (table != t) {
+					continue;
+				}
+				int slot = findKey(t, index1, key);
+				if (slot < 0) {
+					slot = findKey(t, index2, key);
+				}
+				if (slot < 0) {
+					return null;
+				}
+				AtomicReferenceArray<Object> slots = t.slots(slot);
+				V oldValue = (V) slots.get((slot & ~1) + 1);
+				if (!any && !oldValue.equals(expected)) {
+					return null;
+				}
+				bumpVersions(t, slot, slot);
+				slots.set(slot & ~1, null);
+				slots.set((slot & ~1) + 1, null);
+				bumpVersions(t, slot, slot);
+				size.decrement();
+				return oldValue;
+			} finally {
+				unlock(t, index1, index2);
+			}
+		}
+	}
+
+	@Override
+	public boolean replace(K key, V oldValue, V newValue) {
+		if (oldValue == null) {
+			throw new IllegalArgumentException();
+		}
+		return replace(key, oldValue, newValue, false) != null;
+	}
+
+	@Override
+	public V replace(K key, V value) {
+		return replace(key, null, value, true);
+	}
+
+	/**
+	 * Set the value of a present key if, unless any is true, it is mapped
+	 * to the expected value.
+	 *
+	 * @return the replaced value, or null if nothing was replaced
+	 */
+	private V replace(K key, V expected, V value, boolean any) {
+		if (key == null || value == null) {
+			throw new IllegalArgumentException();
+		}
+		int hash = key.hashCode();
+		while (true) {
+			Table t = table;
+			int index1 = index1(t, hash);
+			int index2 = index2(t, hash);
+			lock(t, index1, index2);
+			try {
+				if (table != t) {
+					continue;
+				}
+				int slot = findKey(t, index1, key);
+				if (slot < 0) {
+					slot = findKey(t, index2, key);
+				}
+				if (slot < 0) {
+					return null;
+				}
+				AtomicReferenceArray<Object> slots = t.slots(slot);
+				V oldValue = (V) slots.get((slot & ~1) + 1);
+				if (!any && !oldValue.equals(expected)) {
+					return null;
+				}
+				bumpVersions(t, slot, slot);
+				slots.set((slot & ~1) + 1, value);
+				bumpVersions(t, slot, slot);
+				return oldValue;
+			} finally {
+				unlock(t, index1, index2);
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		long sum = size.sum();
+		return sum > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) Math.max(0, sum);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size.sum() <= 0;
+	}
+
+	/**
+	 * Remove every entry. Entries put concurrently with the clear may
+	 * survive it.
+	 */
+	@Override
+	public void clear() {
+		Iterator<Map.Entry<K, V>> iter = entrySet().iterator();
+		while (iter.hasNext()) {
+			iter.next();
+			iter.remove();
+		}
+	}
+
+	/**
+	 * A weakly consistent view: its iterator walks the table current when
+	 * it was created, never throws ConcurrentModificationException and may
+	 * or may not reflect later changes.
+	 */
+	@Override
+	public Set<Map.Entry<K, V>> entrySet() {
+		return new AbstractSet<Map.Entry<K, V>>() {
+			public Iterator<Map.Entry<K, V>> iterator() {
+				return new EntryIterator();
+			}
+
+			public int size() {
+				return ConcurrentCuckooMap.this.size();
+			}
+
+			public boolean contains(Object o) {
+				if (!(o instanceof Map.Entry)) {
+					return false;
+				}
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+				Object value = e.getKey() == null ? null : get(e.getKey());
+				return value != null && value.equals(e.getValue());
+			}
+
+			public boolean remove(Object o) {
+				if (!(o instanceof Map.Entry)) {
+					return false;
+				}
+				Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+				return e.getKey() != null && ConcurrentCuckooMap.this.remove(e.getKey(), e.getValue());
+			}
+
+			public void clear() {
+				ConcurrentCuckooMap.this.clear();
+			}
+		};
+	}
+
+	private class EntryIterator implements Iterator<Map.Entry<K, V>> {
+		private final Table t = table;
+		private int slot = 0;
+		private Map.Entry<K, V> next;
+		private Map.Entry<K, V> last;
+
+		EntryIterator() {
+			advance();
+		}
+
+		/**
+		 * Find the next occupied slot, reading key and value under the
+		 * stripe version so the pair is consistent.
+		 */
+		private void advance() {
+			next = null;
+			int total = t.slots1.length() * 2;
+			while (next == null && slot < total) {
+				int encoded = slot < t.slots1.length() ? slot : (slot - t.slots1.length()) | 1;
+				slot += 2;
+				AtomicReferenceArray<Object> slots = t.slots(encoded);
+				int stripe = t.stripe(encoded);
+				while (true) {
+					long version = t.versions.get(stripe);
+					Object key = slots.get(encoded & ~1);
+					Object value = slots.get((encoded & ~1) + 1);
+					if ((version & 1) == 0 && t.versions.get(stripe) == version) {
+						if (key != null) {
+							next = new Entry((K) key, (V) value);
+						}
+						break;
+					}
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public Map.Entry<K, V> next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			last = next;
+			advance();
+			return last;
+		}
+
+		public void remove() {
+			if (last == null) {
+				throw new IllegalStateException();
+			}
+			ConcurrentCuckooMap.this.remove(last.getKey(), last.getValue());
+			last = null;
+		}
+	}
+
+	/**
+	 * Entry handed out by the iterator. setValue writes through with put.
+	 */
+	private class Entry extends AbstractMap.SimpleEntry<K, V> {
+
+		private static final long serialVersionUID = 1L;
+
+		Entry(K key, V value) {
+			super(key, value);
+		}
+
+		public V setValue(V value) {
+			V oldValue = super.setValue(value);
+			put(getKey(), value);
+			return oldValue;
+		}
+	}
+}
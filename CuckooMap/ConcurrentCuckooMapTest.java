@@ -0,0 +1,191 @@
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Single threaded behaviour and multi-threaded stress tests for
+ * ConcurrentCuckooMap.
+ */
+public class ConcurrentCuckooMapTest {
+
+    private static final int THREADS = 8;
+    private static final int KEYS_PER_THREAD = 20000;
+
+    ConcurrentCuckooMap<Integer, Integer> map2test;
+
+    @Before
+    public void setUp() {
+        map2test = new ConcurrentCuckooMap<Integer, Integer>(4);
+    }
+
+    @Test
+    public void testPutGetRemove() {
+        assertNull(map2test.put(1, 10));
+        assertEquals(Integer.valueOf(10), map2test.put(1, 11));
+        assertEquals(Integer.valueOf(11), map2test.get(1));
+        assertTrue(map2test.containsKey(1));
+        assertEquals(1, map2test.size());
+        assertEquals(Integer.valueOf(11), map2test.remove(1));
+        assertNull(map2test.get(1));
+        assertTrue(map2test.isEmpty());
+    }
+
+    @Test
+    public void testConditionalOperations() {
+        assertNull(map2test.putIfAbsent(1, 10));
+        assertEquals(Integer.valueOf(10), map2test.putIfAbsent(1, 20));
+        assertFalse(map2test.replace(1, 20, 30));
+        assertTrue(map2test.replace(1, 10, 30));
+        assertEquals(Integer.valueOf(30), map2test.replace(1, 40));
+        assertNull(map2test.replace(2, 40));
+        assertFalse(map2test.remove(1, 30));
+        assertTrue(map2test.remove(1, 40));
+        assertTrue(map2test.isEmpty());
+    }
+
+    @Test
+    public void testGrowsAndMatchesHashMap() {
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random rand = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            int key = rand.nextInt(30000);
+            if (rand.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map2test.remove(key));
+            } else {
+                assertEquals(expected.put(key, i), map2test.put(key, i));
+            }
+        }
+        assertEquals(expected, map2test);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKey() {
+        map2test.put(null, 1);
+    }
+
+    /**
+     * Writers insert and remove disjoint key ranges, forcing displacement
+     * and resizes, while readers check that a fixed set of resident keys is
+     * never missing and never maps to the wrong value.
+     */
+    @Test
+    public void testConcurrentReadersNeverMissResidentKeys() throws Exception {
+        final int residents = 5000;
+        for (int i = 0; i < residents; i++) {
+            map2test.put(-i - 1, i);
+        }
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS * 2];
+        for (int t = 0; t < THREADS; t++) {
+            final int base = t * KEYS_PER_THREAD;
+            threads[t] = new Thread() {
+                public void run() {
+                    await(start);
+                    for (int round = 0; round < 3; round++) {
+                        for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                            map2test.put(base + i, base + i);
+                        }
+                        for (int i = 0; i < KEYS_PER_THREAD; i += 2) {
+                            if (!Integer.valueOf(base + i).equals(map2test.remove(base + i))) {
+                                failure.compareAndSet(null, "lost key " + (base + i));
+                            }
+                        }
+                    }
+                }
+            };
+            threads[THREADS + t] = new Thread() {
+                public void run() {
+                    await(start);
+                    Random rand = new Random();
+                    while (!done.get()) {
+                        int i = rand.nextInt(residents);
+                        Integer value = map2test.get(-i - 1);
+                        if (value == null || value != i) {
+                            failure.compareAndSet(null, "resident " + i + " read as " + value);
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (int t = 0; t < THREADS; t++) {
+            threads[t].join();
+        }
+        done.set(true);
+        for (int t = THREADS; t < threads.length; t++) {
+            threads[t].join();
+        }
+        assertNull(failure.get(), failure.get());
+
+        assertEquals(residents + THREADS * KEYS_PER_THREAD / 2, map2test.size());
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < KEYS_PER_THREAD; i++) {
+                int key = t * KEYS_PER_THREAD + i;
+                assertEquals("key " + key, i % 2 == 0 ? null : Integer.valueOf(key), map2test.get(key));
+            }
+        }
+    }
+
+    /**
+     * Every thread increments shared counters with replace, so no update
+     * may be lost.
+     */
+    @Test
+    public void testConcurrentReplaceLosesNoUpdates() throws Exception {
+        final int counters = 64;
+        final int increments = 20000;
+        for (int i = 0; i < counters; i++) {
+            map2test.put(i, 0);
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread() {
+                public void run() {
+                    await(start);
+                    Random rand = new Random();
+                    for (int i = 0; i < increments; i++) {
+                        int key = rand.nextInt(counters);
+                        while (true) {
+                            Integer old = map2test.get(key);
+                            if (map2test.replace(key, old, old + 1)) {
+                                break;
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long total = 0;
+        for (int i = 0; i < counters; i++) {
+            total += map2test.get(i);
+        }
+        assertEquals((long) THREADS * increments, total);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,304 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A cuckoo filter: an approximate set that remembers a short fingerprint of
+ * each key instead of the key itself. mightContain never misses a key that
+ * was added and not deleted, but may claim a key is present when it is not,
+ * with a probability set by the fingerprint size.
+ *
+ * Uses the displacement scheme of CuckooMap with buckets of BUCKET_SLOTS
+ * fingerprints. Since only fingerprints are stored, a key's second bucket
+ * is derived from its first bucket and its fingerprint (partial-key cuckoo
+ * hashing), so a fingerprint can be moved without knowing its key. The
+ * fingerprints are packed into a long array with no per-entry overhead, at
+ * roughly fingerprintBits / .95 bits per key when full.
+ *
+ * The filter cannot grow, as the keys are gone. add returns false once the
+ * filter is too full to place another fingerprint. Keys are hashed through
+ * hashCode, so keys with equal hashCodes are indistinguishable whatever
+ * the fingerprint size.
+ */
+public class CuckooFilter {
+
+	public static final int BUCKET_SLOTS = 4;
+	private static final double MAX_LOAD_FACTOR = .95;
+	private static final int MAX_KICKS = 500;
+	/*
+	 * Fingerprint value marking an empty slot; fingerprints are never 0.
+	 */
+	private static final long EMPTY = 0;
+
+	private final CuckooHashFunction hashFunction = new MurmurMixHash();
+	private final Random rand = new Random();
+	private final long indexSeed;
+	private final long fingerprintSeed;
+	private final long altSeed;
+	private final int fingerprintBits;
+	private final long fingerprintMask;
+	/*
+	 * 2^bits buckets of BUCKET_SLOTS fingerprints each, packed back to back
+	 * in data. Fingerprints may straddle two longs.
+	 */
+	private final int bits;
+	private final long[] data;
+	private long size;
+	/*
+	 * A fingerprint left homeless by a failed displacement chain is kept
+	 * here instead of being dropped, which would break the no false
+	 * negatives guarantee. While it is occupied add refuses new keys.
+	 */
+	private long victim = EMPTY;
+	private int victimIndex;
+
+	/**
+	 * @param capacity the number of keys the filter must hold
+	 * @param fingerprintBits the bits stored per key, from 1 to 32
+	 */
+	public CuckooFilter(long capacity, int fingerprintBits) {
+		if (capacity < 0 || fingerprintBits < 1 || fingerprintBits > 32) {
+			throw new IllegalArgumentException();
+		}
+		this.fingerprintBits = fingerprintBits;
+		this.fingerprintMask = (1L << fingerprintBits) - 1;
+		long buckets = Math.max(1, (long) Math.ceil(capacity / (BUCKET_SLOTS * MAX_LOAD_FACTOR)));
+		int bits = 64 - Long.numberOfLeadingZeros(buckets - 1);
+		long words = ((BUCKET_SLOTS * (long) fingerprintBits) << bits) / 64 + 1;
+		if (bits > 30 || words > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("capacity too large");
+		}
+		this.bits = bits;
+		this.data = new long[(int) words];
+		indexSeed = rand.nextLong() | 1L;
+		fingerprintSeed = rand.nextLong() | 1L;
+		altSeed = rand.nextLong() | 1L;
+	}
+
+	/**
+	 * Size the fingerprints for a target false positive rate. A lookup
+	 * compares against up to 2 * BUCKET_SLOTS fingerprints, each matching by
+	 * chance with probability 2^-fingerprintBits.
+	 *
+	 * @param capacity the number of keys the filter must hold
+	 * @param falsePositiveRate the highest acceptable false positive rate
+	 */
+	public CuckooFilter(long capacity, double falsePositiveRate) {
+		this(capacity, fingerprintBitsFor(falsePositiveRate));
+	}
+
+	private static int fingerprintBitsFor(double falsePositiveRate) {
+		if (!(falsePositiveRate > 0 && falsePositiveRate < 1)) {
+			throw new IllegalArgumentException();
+		}
+		double bits = Math.ceil(Math.log(2 * BUCKET_SLOTS / falsePositiveRate) / Math.log(2));
+		return (int) Math.min(32, bits);
+	}
+
+	/*
+	 * Both hashes come from the key's hashCode: its bucket from one seed
+	 * and its fingerprint from another.
+	 */
+	private int index(Object key) {
+		return hashFunction.index(key.hashCode(), indexSeed, bits);
+	}
+
+	private long fingerprint(Object key) {
+		long fingerprint = hashFunction.index(key.hashCode(), fingerprintSeed, fingerprintBits) & fingerprintMask;
+		return fingerprint == EMPTY ? 1 : fingerprint;
+	}
+
+	/**
+	 * The other bucket for a fingerprint in the given bucket. Applying it
+	 * twice gives back the original bucket.
+	 */
+	private int altIndex(int index, long fingerprint) {
+		return index ^ hashFunction.index(fingerprint, altSeed, bits);
+	}
+
+	private long get(int index, int slot) {
+		long bit = ((long) index * BUCKET_SLOTS + slot) * fingerprintBits;
+		int word = (int) (bit >>> 6);
+		int shift = (int) (bit & 63);
+		long value = data[word] >>> shift;
+		if (shift + fingerprintBits > 64) {
+			value |= data[word + 1] << (64 - shift);
+		}
+		return value & fingerprintMask;
+	}
+
+	private void set(int index, int slot, long fingerprint) {
+		long bit = ((long) index * BUCKET_SLOTS + slot) * fingerprintBits;
+		int word = (int) (bit >>> 6);
+		int shift = (int) (bit & 63);
+		data[word] = (data[word] & ~(fingerprintMask << shift)) | (fingerprint << shift);
+		if (shift + fingerprintBits > 64) {
+			int spill = 64 - shift;
+			data[word + 1] = (data[word + 1] & ~(fingerprintMask >>> spill)) | (fingerprint >>> spill);
+		}
+	}
+
+	/**
+	 * @return the slot of the fingerprint in the bucket, or -1
+	 */
+	private int find(int index, long fingerprint) {
+		for (int slot = 0; slot < BUCKET_SLOTS; slot++) {
+			if (get(index, slot) == fingerprint) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Store the fingerprint in an empty slot of the bucket.
+	 *
+	 * @return true if the bucket had room
+	 */
+	private boolean place(int index, long fingerprint) {
+		int slot = find(index, EMPTY);
+		if (slot < 0) {
+			return false;
+		}
+		set(index, slot, fingerprint);
+		return true;
+	}
+
+	/**
+	 * Add the key. Adding a key twice stores two fingerprints, and it
+	 * then takes two deletes to remove it.
+	 *
+	 * Throw an IllegalArgumentException if the key is null.
+	 *
+	 * @return true if the key was added, false if the filter is full
+	 */
+	public boolean add(Object key) {
+		if (key == null) {
+			throw new IllegalArgumentException();
+		}
+		if (victim != EMPTY) {
+			return false;
+		}
+		insert(index(key), fingerprint(key));
+		size++;
+		return true;
+	}
+
+	/**
+	 * Store the fingerprint in one of its two buckets, displacing others
+	 * along a random walk if both are full. If the walk runs out, the
+	 * fingerprint left over becomes the victim.
+	 */
+	private void insert(int index, long fingerprint) {
+		if (place(index, fingerprint) || place(index = altIndex(index, fingerprint), fingerprint)) {
+			return;
+		}
+		for (int kick = 0; kick < MAX_KICKS; kick++) {
+			int slot = rand.nextInt(BUCKET_SLOTS);
+			long evicted = get(index, slot);
+			set(index, slot, fingerprint);
+			fingerprint = evicted;
+			index = altIndex(index, fingerprint);
+			if (place(index, fingerprint)) {
+				return;
+			}
+		}
+		// the new fingerprint is in, but some other one has nowhere to go
+		victim = fingerprint;
+		victimIndex = index;
+	}
+
+	/**
+	 * @return false if the key is certainly not in the filter, true if it
+	 * probably is
+	 */
+	public boolean mightContain(Object key) {
+		if (key == null) {
+			throw new IllegalArgumentException();
+		}
+		long fingerprint = fingerprint(key);
+		int index1 = index(key);
+		int index2 = altIndex(index1, fingerprint);
+		if (find(index1, fingerprint) >= 0 || find(index2, fingerprint) >= 0) {
+			return true;
+		}
+		return victim == fingerprint && (victimIndex == index1 || victimIndex == index2);
+	}
+
+	/**
+	 * Delete one fingerprint of the key. Only delete keys that were added:
+	 * deleting any other key may remove the fingerprint of a different key
+	 * that happens to match, causing false negatives for it.
+	 *
+	 * @return true if a matching fingerprint was found and removed
+	 */
+	public boolean delete(Object key) {
+		if (key == null) {
+			throw new IllegalArgumentException();
+		}
+		long fingerprint = fingerprint(key);
+		int index1 = index(key);
+		int index2 = altIndex(index1, fingerprint);
+		int slot = find(index1, fingerprint);
+		int index = index1;
+		if (slot < 0) {
+			slot = find(index2, fingerprint);
+			index = index2;
+		}
+		if (slot >= 0) {
+			set(index, slot, EMPTY);
+			size--;
+			// a slot opened up, so displacing others may make room for the victim now
+			if (victim != EMPTY) {
+				long homeless = victim;
+				victim = EMPTY;
+				insert(victimIndex, homeless);
+			}
+			return true;
+		}
+		if (victim == fingerprint && (victimIndex == index1 || victimIndex == index2)) {
+			victim = EMPTY;
+			size--;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of fingerprints stored
+	 */
+	public long size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int getFingerprintBits() {
+		return fingerprintBits;
+	}
+
+	/**
+	 * @return the worst case false positive rate, reached when the filter
+	 * is full
+	 */
+	public double getFalsePositiveRate() {
+		return 2.0 * BUCKET_SLOTS / (1L << fingerprintBits);
+	}
+
+	/**
+	 * @return the number of bytes of fingerprint storage
+	 */
+	public long sizeInBytes() {
+		return data.length * 8L;
+	}
+
+	/**
+	 * Remove every fingerprint.
+	 */
+	public void clear() {
+		Arrays.fill(data, 0);
+		victim = EMPTY;
+		size = 0;
+	}
+}
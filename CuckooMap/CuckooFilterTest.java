@@ -0,0 +1,158 @@
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * CuckooFilter must never report an added key as absent, and should only
+ * rarely report an absent key as present.
+ */
+public class CuckooFilterTest {
+
+    /**
+     * Widths that divide 64 and widths whose fingerprints straddle two
+     * words.
+     */
+    private static final int[] FINGERPRINT_BITS = {1, 4, 7, 8, 12, 16, 23, 32};
+
+    @Test
+    public void testNoFalseNegatives() {
+        for (int fingerprintBits : FINGERPRINT_BITS) {
+            CuckooFilter filter = new CuckooFilter(20000, fingerprintBits);
+            List<Integer> added = new ArrayList<Integer>();
+            for (int i = 0; i < 20000; i++) {
+                if (filter.add(i)) {
+                    added.add(i);
+                }
+            }
+            assertEquals(added.size(), filter.size());
+            assertTrue(fingerprintBits + " bits held " + added.size(), fingerprintBits < 7 || added.size() == 20000);
+            for (int key : added) {
+                assertTrue(fingerprintBits + " bits lost " + key, filter.mightContain(key));
+            }
+        }
+    }
+
+    /**
+     * Adding past capacity eventually fails, and every key accepted before
+     * that, including one whose fingerprint was displaced into the victim
+     * slot, is still found. Deleting makes room again.
+     */
+    @Test
+    public void testFullFilterKeepsEveryAcceptedKey() {
+        CuckooFilter filter = new CuckooFilter(100, 16);
+        List<Integer> added = new ArrayList<Integer>();
+        for (int i = 0; filter.add(i); i++) {
+            added.add(i);
+            assertTrue("never fills", i < 10000);
+        }
+        assertFalse(filter.add(-1));
+        assertEquals(added.size(), filter.size());
+        for (int key : added) {
+            assertTrue("lost " + key, filter.mightContain(key));
+        }
+        int deleted = added.size() / 10;
+        for (int key : added.subList(0, deleted)) {
+            assertTrue(filter.delete(key));
+        }
+        assertTrue(filter.add(-1));
+        assertTrue(filter.mightContain(-1));
+        for (int key : added.subList(deleted, added.size())) {
+            assertTrue("lost " + key, filter.mightContain(key));
+        }
+    }
+
+    /**
+     * The measured false positive rate stays within the one asked for.
+     */
+    @Test
+    public void testFalsePositiveRate() {
+        CuckooFilter filter = new CuckooFilter(100000, .01);
+        assertTrue(filter.getFalsePositiveRate() <= .01);
+        for (int i = 0; i < 100000; i++) {
+            assertTrue(filter.add(i));
+        }
+        int falsePositives = 0;
+        for (int i = 100000; i < 300000; i++) {
+            if (filter.mightContain(i)) {
+                falsePositives++;
+            }
+        }
+        double rate = falsePositives / 200000.0;
+        assertTrue("rate " + rate, rate <= .01);
+    }
+
+    @Test
+    public void testDeleteKeepsOtherKeys() {
+        CuckooFilter filter = new CuckooFilter(10000, 16);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(i);
+        }
+        int stillThere = 0;
+        for (int i = 0; i < 10000; i += 2) {
+            assertTrue(filter.delete(i));
+        }
+        assertEquals(5000, filter.size());
+        for (int i = 0; i < 10000; i++) {
+            if (i % 2 == 1) {
+                assertTrue("lost " + i, filter.mightContain(i));
+            } else if (filter.mightContain(i)) {
+                stillThere++;
+            }
+        }
+        assertTrue("deleted keys found " + stillThere, stillThere < 50);
+    }
+
+    @Test
+    public void testDuplicateAddsNeedTwoDeletes() {
+        CuckooFilter filter = new CuckooFilter(100, 16);
+        filter.add("key");
+        filter.add("key");
+        assertEquals(2, filter.size());
+        assertTrue(filter.delete("key"));
+        assertTrue(filter.mightContain("key"));
+        assertTrue(filter.delete("key"));
+        assertFalse(filter.mightContain("key"));
+        assertFalse(filter.delete("key"));
+        assertTrue(filter.isEmpty());
+    }
+
+    @Test
+    public void testClear() {
+        CuckooFilter filter = new CuckooFilter(1000, 16);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(i);
+        }
+        filter.clear();
+        assertTrue(filter.isEmpty());
+        int found = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (filter.mightContain(i)) {
+                found++;
+            }
+        }
+        assertEquals(0, found);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFingerprintBitsTooLarge() {
+        new CuckooFilter(100, 33);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFingerprintBitsTooSmall() {
+        new CuckooFilter(100, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFalsePositiveRateOutOfRange() {
+        new CuckooFilter(100, 1.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAddNull() {
+        new CuckooFilter(100, 8).add(null);
+    }
+}
@@ -0,0 +1,18 @@
+/**
+ * A family of hash functions used to place keys in the power-of-two sized
+ * tables of the cuckoo maps. Each table draws its own random seed from the
+ * family, and draws a fresh one on every rehash, so the two tables of a map
+ * behave as independent functions.
+ */
+public interface CuckooHashFunction {
+	
+	/**
+	 * Map a key to a bucket of a table with 2^bits buckets.
+	 * 
+	 * @param key the key, or the hashCode of an object key
+	 * @param seed the table's random seed, always odd
+	 * @param bits log2 of the number of buckets in the table
+	 * @return a bucket index in [0, 2^bits)
+	 */
+	int index(long key, long seed, int bits);
+}
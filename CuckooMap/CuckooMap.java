@@ -1,33 +1,208 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
 
-public class CuckooMap<K extends Hashable, V> implements Map<K, V> {
+public class CuckooMap<K, V> implements Map<K, V> {
 	
 	private static final double MAX_LOAD_FACTOR = .80;
-	private int num1;
-	private int num2;
+	/*
+	 * With several slots per bucket a key has that many choices in each
+	 * table, so displacement keeps succeeding well past 90% occupancy.
+	 */
+	private static final double BUCKET_MAX_LOAD_FACTOR = .93;
+	/*
+	 * Two tables of single slots fill only about half way before
+	 * displacement chains start to fail; growth gets past that with the
+	 * stash and rehashes, but presizing aims below it.
+	 */
+	private static final double SINGLE_SLOT_SIZING_LOAD = .50;
+	/*
+	 * With autoShrink on, a remove that leaves the tables less than
+	 * SHRINK_LOAD_FACTOR full shrinks them to a load of at most twice
+	 * this, well short of the growth threshold, so a map hovering around
+	 * either threshold does not flip between sizes.
+	 */
+	private static final double SHRINK_LOAD_FACTOR = .20;
+	private boolean autoShrink = false;
+	private int initialBits;
+	
+	/**
+	 * Slots per bucket for the bucketized layout. Four interleaved key/value
+	 * pairs fit in a single cache line with compressed references.
+	 */
+	public static final int BUCKET_SLOTS = 4;
+	
+	/*
+	 * Per-table seeds for hashFunction, odd and redrawn on every rehash.
+	 * Each table has 2^bits buckets, so indices are masked, never divided.
+	 */
+	private long num1;
+	private long num2;
+	private int bits;
+	private final CuckooHashFunction hashFunction;
 	private Random rand = new Random();
+	/*
+	 * Entries held by table1 and table2 themselves, leaving out the old
+	 * generation and the stash.
+	 */
 	private int count1;
 	private int count2;
+	private CuckooMapRecorder recorder = CuckooMapRecorder.NOOP;
 	private int size;
-	private Bucket[] table1;
-	private Bucket[] table2;
-	private int countPush = 0;
+	/*
+	 * Bumped whenever a key is added or removed or the tables are rebuilt,
+	 * so iterators over the views can fail fast. The views themselves are created once and are live.
+	 */
+	private int modCount;
+	private Set<K> keySet;
+	private Collection<V> values;
+	private Set<Map.Entry<K, V>> entrySet;
+	/*
+	 * Each table is a flat array of interleaved key/value pairs: the key of
+	 * slot i lives at [2*i] and its value at [2*i + 1]. An empty slot has a
+	 * null key. Hash indices below are always the offset of the key in the
+	 * first slot of a bucket.
+	 */
+	private Object[] table1;
+	private Object[] table2;
+	/*
+	 * Displacement. An insert whose two candidate buckets are full kicks
+	 * residents out of the way, up to maxKicks times, choosing victims by
+	 * kickStrategy. Slots on a kick path are encoded as their key offset, with the low
+	 * bit set for table2 (key offsets are always even).
+	 */
+	private static final int DEFAULT_MAX_KICKS = 128;
+	private int maxKicks = DEFAULT_MAX_KICKS;
+	private KickStrategy kickStrategy = KickStrategy.RANDOM_WALK;
+	private int[] pathSlots;
+	private int[] pathParents;
+	/*
+	 * The entry left over when tryInsert fails, for the caller to place
+	 * once the tables have grown.
+	 */
+	private Object homelessKey;
+	private Object homelessValue;
+	/*
+	 * Each hash index names a bucket of slotsPerBucket consecutive slots that
+	 * are searched linearly. One slot per bucket is the classic layout.
+	 */
+	private final int slotsPerBucket;
+	private final double maxLoadFactor;
+	
+	/*
+	 * Incremental rehash. While oldTable1 is non-null the previous generation
+	 * of tables is still being drained into table1/table2: each public
+	 * operation moves MIGRATE_STEP old slots, and lookups consult both
+	 * generations. migrateIndex walks oldTable1 and then oldTable2.
+	 */
+	private static final int MIGRATE_STEP = 4;
+	private boolean incremental = false;
+	private Object[] oldTable1;
+	private Object[] oldTable2;
+	private long oldNum1;
+	private long oldNum2;
+	private int oldBits;
+	private int migrateIndex;
+	/*
+	 * Migration pauses while iterators or forEach walk the tables, as
+	 * moving an old entry into a part of the new tables already walked
+	 * would hide it. walkers counts the walks started at walkModCount.
+	 * Adding or removing a key ends every walk, so the pause lapses with
+	 * it, and an abandoned iterator holds migration up only until then.
+	 */
+	private int walkers;
+	private int walkModCount;
+	
+	/*
+	 * Overflow stash of interleaved key/value pairs for keys whose
+	 * displacement chain ran too long. A few stashed keys let the map put
+	 * off a rehash; the stash is emptied back into the tables whenever they
+	 * are rebuilt.
+	 */
+	private static final int STASH_SIZE = 4;
+	private Object[] stash = new Object[STASH_SIZE * 2];
+	private int stashCount = 0;
 	
-	private class Bucket<K extends Comparable, V> implements Map.Entry<K, V>, Comparable {
+	/*
+	 * Parallel rehash. A full rebuild of at least PARALLEL_MIN_SLOTS old
+	 * slots is split into ranges of PARALLEL_CHUNK slots that workers of
+	 * rehashPool place into free slots of the new tables concurrently,
+	 * claiming each slot with a compare-and-set. Entries whose buckets are
+	 * both full are inserted afterwards on the calling thread.
+	 */
+	private static final int PARALLEL_MIN_SLOTS = 1 << 16;
+	private static final int PARALLEL_CHUNK = 1 << 13;
+	private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Object[].class);
+	private ForkJoinPool rehashPool;
+	
+	/*
+	 * Cache mode. The tables never grow; when they are full, or a kick
+	 * chain fails, an entry is evicted from the new key's own buckets
+	 * instead. ref1/ref2 hold one CLOCK reference bit per slot of
+	 * table1/table2, set whenever the entry in the slot is read by get,
+	 * updated or moved, and cleared when every candidate of an eviction
+	 * has it. New entries start without it.
+	 */
+	private boolean cache = false;
+	private long[] ref1;
+	private long[] ref2;
+	
+	/*
+	 * Batch operations hash BATCH_SIZE keys into these before probing any
+	 * of them, so the probes do not wait on each other's cache misses.
+	 */
+	private static final int BATCH_SIZE = 64;
+	private int[] batchIndex1;
+	private int[] batchIndex2;
+	
+	/**
+	 * How an insert picks which resident to displace when both candidate
+	 * buckets of its key are full.
+	 */
+	public enum KickStrategy {
+		/**
+		 * Evict a random slot of either bucket, other than the one just
+		 * filled, and carry on inserting the evicted key.
+		 */
+		RANDOM_WALK,
+		/**
+		 * Search breadth first for the shortest chain of moves ending in an
+		 * empty slot, then shift the residents along it. Nothing moves if no
+		 * chain is found within maxKicks examined slots.
+		 */
+		BFS
+	}
+	
+	/**
+	 * Entry view over one slot of a table, handed out by the entry set
+	 * iterator. setValue writes through to the table for as long as the
+	 * slot still holds this key.
+	 */
+	private class Bucket implements Map.Entry<K, V> {
 
+		private Object[] table;
+		private int index;
 		private K key;
 		private V value;
-		private boolean removed;
 		
-		public Bucket(K key, V value) {
-			this.key = key;
-			this.value = value;
-			removed = false;
+		public Bucket(Object[] table, int index) {
+			this.table = table;
+			this.index = index;
+			this.key = (K) table[index];
+			this.value = (V) table[index + 1];
 		}
 		
 		public K getKey() {
@@ -39,156 +214,1062 @@ public class CuckooMap<K extends Hashable, V> implements Map<K, V> {
 		}
 
 		public V setValue(V value) {
+			if (value == null) {
+				throw new IllegalArgumentException();
+			}
 			V temp = this.value;
 			this.value = value;
+			if (table[index] == key) {
+				table[index + 1] = value;
+			}
 			return temp;
 		}
 		
 		public boolean equals(Object obj) {
 			if (this == obj)
 				return true;
-			if (obj == null)
+			if (!(obj instanceof Map.Entry))
+				return false;
+			Map.Entry<?, ?> other = (Map.Entry<?, ?>) obj;
+			return key.equals(other.getKey()) && value.equals(other.getValue());
+		}
+		
+		public int hashCode() {
+			return key.hashCode() ^ value.hashCode();
+		}
+		
+		public String toString() {
+			return key + "=" + value;
+		}
+	}
+	
+	/**
+	 * Walks the occupied slots of table1, table2, the old generation if an
+	 * incremental rehash is under way, and then the stash. The stash is
+	 * walked from its end, so removing a stashed entry, which moves the
+	 * last stashed entry into the hole, never skips one. Migration is
+	 * paused until the walk ends.
+	 */
+	private abstract class SlotIterator<E> implements Iterator<E> {
+
+		private final Object[][] tables = new Object[walkedTableCount()][];
+		private int tableIndex;
+		private Object[] table;
+		private int next = -2;
+		private Object[] lastTable;
+		private int last = -1;
+		private int expectedModCount;
+		private boolean pausing;
+		
+		SlotIterator() {
+			for (int t = 0; t < tables.length; t++) {
+				tables[t] = walkedTable(t);
+			}
+			table = tables[0];
+			expectedModCount = modCount;
+			if (oldTable1 != null) {
+				pauseMigration();
+				pausing = true;
+			}
+			advance();
+		}
+		
+		/**
+		 * Move next to the following occupied slot, or leave table null.
+		 */
+		private void advance() {
+			if (table != stash) {
+				while (true) {
+					for (next += 2; next < table.length; next += 2) {
+						if (table[next] != null) {
+							return;
+						}
+					}
+					if (++tableIndex == tables.length) {
+						break;
+					}
+					table = tables[tableIndex];
+					next = -2;
+				}
+				table = stash;
+				next = stashCount * 2;
+			}
+			next -= 2;
+			if (next < 0) {
+				table = null;
+				if (pausing) {
+					resumeMigration(expectedModCount);
+					pausing = false;
+				}
+			}
+		}
+		
+		abstract E element(Object[] table, int slot);
+		
+		public boolean hasNext() {
+			return table != null;
+		}
+		
+		public E next() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			if (table == null) {
+				throw new NoSuchElementException();
+			}
+			lastTable = table;
+			last = next;
+			advance();
+			return element(lastTable, last);
+		}
+		
+		public void remove() {
+			if (last < 0) {
+				throw new IllegalStateException();
+			}
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			removeSlot(lastTable, last);
+			expectedModCount = modCount;
+			last = -1;
+			if (pausing) {
+				// the removal ended every other walk, but this one goes on
+				pauseMigration();
+			}
+		}
+	}
+	
+	private final class KeySet extends AbstractSet<K> {
+		
+		public Iterator<K> iterator() {
+			return new SlotIterator<K>() {
+				K element(Object[] table, int slot) {
+					return (K) table[slot];
+				}
+			};
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		public boolean contains(Object o) {
+			return containsKey(o);
+		}
+		
+		public boolean remove(Object o) {
+			return CuckooMap.this.remove(o) != null;
+		}
+		
+		public void clear() {
+			CuckooMap.this.clear();
+		}
+	}
+	
+	private final class Values extends AbstractCollection<V> {
+		
+		public Iterator<V> iterator() {
+			return new SlotIterator<V>() {
+				V element(Object[] table, int slot) {
+					return (V) table[slot + 1];
+				}
+			};
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		public boolean contains(Object o) {
+			return containsValue(o);
+		}
+		
+		public void clear() {
+			CuckooMap.this.clear();
+		}
+	}
+	
+	private final class EntrySet extends AbstractSet<Map.Entry<K, V>> {
+		
+		public Iterator<Map.Entry<K, V>> iterator() {
+			return new SlotIterator<Map.Entry<K, V>>() {
+				Map.Entry<K, V> element(Object[] table, int slot) {
+					return new Bucket(table, slot);
+				}
+			};
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		public boolean contains(Object o) {
+			if (!(o instanceof Map.Entry)) {
 				return false;
-			if (getClass() != obj.getClass())
+			}
+			Map.Entry<?, ?> entry = (Map.Entry<?, ?>) o;
+			if (entry.getKey() == null) {
 				return false;
-			
-			Bucket<K, V> other = (Bucket) obj;
-			if (key == null) {
-				if (other.key != null)
-					return false;
-			} else if (!key.equals(other.key)) {
+			}
+			V value = get(entry.getKey());
+			return value != null && value.equals(entry.getValue());
+		}
+		
+		public boolean remove(Object o) {
+			if (!contains(o)) {
 				return false;
 			}
+			CuckooMap.this.remove(((Map.Entry<?, ?>) o).getKey());
+			return true;
+		}
+		
+		public void clear() {
+			CuckooMap.this.clear();
+		}
+	}
+	
+	public CuckooMap(int startSize){
+		this(startSize, 1);
+	}
+	
+	/**
+	 * Create a map holding the entries of the source, with tables sized
+	 * for them up front so loading it does not double its way up.
+	 */
+	public CuckooMap(Map<? extends K, ? extends V> source){
+		this(0, 1);
+		if (source == null){
+			throw new IllegalArgumentException();
+		}
+		putAll(source);
+	}
+	
+	public CuckooMap(int startSize, int slotsPerBucket){
+		this(startSize, slotsPerBucket, new MurmurMixHash());
+	}
+	
+	/**
+	 * Create a map whose hash indices each name a bucket of several slots.
+	 * Passing BUCKET_SLOTS gives the bucketized layout, which sustains a much
+	 * higher load before the tables have to grow.
+	 * 
+	 * The number of buckets is rounded up to a power of two.
+	 * 
+	 * @param startSize the number of slots to start with in each table
+	 * @param slotsPerBucket the number of slots searched at each hash index
+	 * @param hashFunction the hash family used to index both tables
+	 */
+	public CuckooMap(int startSize, int slotsPerBucket, CuckooHashFunction hashFunction){
+		if (slotsPerBucket < 1 || hashFunction == null){
+			throw new IllegalArgumentException();
+		}
+		this.slotsPerBucket = slotsPerBucket;
+		this.hashFunction = hashFunction;
+		this.maxLoadFactor = slotsPerBucket == 1 ? MAX_LOAD_FACTOR : BUCKET_MAX_LOAD_FACTOR;
+		initialBits = bucketBits(startSize);
+		allocate(initialBits);
+		size = 0;
+	}
+	
+	/**
+	 * @return log2 of the smallest power of two number of buckets holding
+	 * the given number of slots
+	 */
+	private int bucketBits(int slots){
+		int buckets = Math.max(1, (slots + slotsPerBucket - 1) / slotsPerBucket);
+		return 32 - Integer.numberOfLeadingZeros(buckets - 1);
+	}
+	
+	/**
+	 * Replace the current tables with empty ones of 2^bits buckets and draw
+	 * new seeds for them.
+	 */
+	private void allocate(int bits){
+		this.bits = bits;
+		count1 = 0;
+		count2 = 0;
+		table1 = new Object[(slotsPerBucket << bits) * 2];
+		table2 = new Object[(slotsPerBucket << bits) * 2];
+		num1 = rand.nextLong() | 1L;
+		num2 = rand.nextLong() | 1L;
+		if (cache){
+			ref1 = new long[((slotsPerBucket << bits) + 63) / 64];
+			ref2 = new long[ref1.length];
+		}
+	}
+
+	public V put(K key, V value){
+		if (key == null || value == null){
+			throw new IllegalArgumentException();
+		}
+		migrate(MIGRATE_STEP);
+		return putEntry(key, value);
+	}
+	
+	private V putEntry(K key, V value){
+		return putEntry(key, value, getHashIndex1(key), getHashIndex2(key));
+	}
+	
+	/**
+	 * putEntry for a key whose indices in the current tables are already known.
+	 */
+	private V putEntry(K key, V value, int index1, int index2){
+		V oldValue;
+		int slot = findKey(table1, index1, key);
+		if (slot >= 0){
+			oldValue = (V) table1[slot + 1];
+			table1[slot + 1] = value;
+			touch(table1, slot);
+			return oldValue;
+		}
+		slot = findKey(table2, index2, key);
+		if (slot >= 0){
+			oldValue = (V) table2[slot + 1];
+			table2[slot + 1] = value;
+			touch(table2, slot);
+			return oldValue;
+		}
+		if (oldTable1 != null){
+			slot = findKey(oldTable1, getHashIndex(key, oldNum1, oldBits), key);
+			if (slot >= 0){
+				oldValue = (V) oldTable1[slot + 1];
+				oldTable1[slot + 1] = value;
+				return oldValue;
+			}
+			slot = findKey(oldTable2, getHashIndex(key, oldNum2, oldBits), key);
+			if (slot >= 0){
+				oldValue = (V) oldTable2[slot + 1];
+				oldTable2[slot + 1] = value;
+				return oldValue;
+			}
+		}
+		if (stashCount > 0){
+			slot = findStashed(key);
+			if (slot >= 0){
+				oldValue = (V) stash[slot + 1];
+				stash[slot + 1] = value;
+				return oldValue;
+			}
+		}
+		
+		if (cache) {
+			// make room where the key can go directly, so no kick chain has to find it;
+			// if both its buckets are empty the map runs a slot over until the next put
+			if (isFull()) {
+				evictFrom(index1, index2);
+			}
+		} else if (isFull()) {
+			rehash(null, null);
+		}
+		insert(key, value);
+		size++;
+		modCount++;
+		return null;
+	}
+	
+	/**
+	 * Place a key known to be absent from the map, growing the tables if
+	 * there is no room for it. Growing never comes back here, so the stack
+	 * depth of an insert is fixed however many rehashes it takes.
+	 */
+	private void insert(Object key, Object value){
+		if (!tryInsert(key, value)){
+			rehash(homelessKey, homelessValue);
+		}
+	}
+	
+	/**
+	 * Place a key known to be absent from the map in the current tables.
+	 * When the kick loop gives up the homeless key goes to the stash. In
+	 * cache mode it instead takes the slot of an evicted resident.
+	 * 
+	 * @return false if the stash was full too, leaving the entry the loop
+	 * was carrying, which need not be the one passed in, in homelessKey
+	 * and homelessValue
+	 */
+	private boolean tryInsert(Object key, Object value){
+		Object newKey = key;
+		int kicks = 0;
+		int lastSlot = -1;
+		while (true){
+			int index1 = getHashIndex1((K) key);
+			int slot = findEmpty(table1, index1);
+			if (slot >= 0){
+				table1[slot] = key;
+				table1[slot + 1] = value;
+				count1++;
+				reference(table1, slot, key != newKey);
+				recorder.kicks(kicks);
+				return true;
+			}
+			int index2 = getHashIndex2((K) key);
+			slot = findEmpty(table2, index2);
+			if (slot >= 0){
+				table2[slot] = key;
+				table2[slot + 1] = value;
+				count2++;
+				reference(table2, slot, key != newKey);
+				recorder.kicks(kicks);
+				return true;
+			}
 			
-			if (value == null) {
-				if (other.value != null)
-					return false;
-			} else if (!value.equals(other.value)) {
+			if (kicks < maxKicks && kickStrategy == KickStrategy.BFS){
+				kicks = pathInsert(key, value, index1, index2);
+				if (kicks >= 0){
+					recorder.kicks(kicks);
+					return true;
+				}
+				kicks = maxKicks;
+			}
+			if (kicks >= maxKicks){
+				recorder.kickFailure();
+				if (cache){
+					int victim = evictFrom(index1, index2);
+					Object[] table = (victim & 1) == 0 ? table1 : table2;
+					slot = victim & ~1;
+					table[slot] = key;
+					table[slot + 1] = value;
+					if (table == table1){
+						count1++;
+					} else {
+						count2++;
+					}
+					reference(table, slot, key != newKey);
+					return true;
+				}
+				if (stashCount < STASH_SIZE){
+					stash[stashCount * 2] = key;
+					stash[stashCount * 2 + 1] = value;
+					stashCount++;
+					return true;
+				}
+				homelessKey = key;
+				homelessValue = value;
 				return false;
 			}
-			return true;
+			
+			int victim;
+			do {
+				int pick = rand.nextInt(slotsPerBucket * 2);
+				if (pick < slotsPerBucket){
+					victim = index1 + pick * 2;
+				} else {
+					victim = (index2 + (pick - slotsPerBucket) * 2) | 1;
+				}
+			} while (victim == lastSlot);
+			Object[] table = (victim & 1) == 0 ? table1 : table2;
+			slot = victim & ~1;
+			Object tempKey = table[slot];
+			Object tempValue = table[slot + 1];
+			table[slot] = key;
+			table[slot + 1] = value;
+			reference(table, slot, key != newKey);
+			key = tempKey;
+			value = tempValue;
+			lastSlot = victim;
+			kicks++;
+		}
+	}
+	
+	/**
+	 * Breadth first search from the two full candidate buckets of key for
+	 * the nearest empty slot, examining at most maxKicks occupied slots.
+	 * If one is found every resident on the path moves one step towards it
+	 * and key takes the first slot of the path.
+	 * 
+	 * @return the number of residents moved, or -1 if no path was found
+	 */
+	private int pathInsert(Object key, Object value, int index1, int index2){
+		int limit = maxKicks + slotsPerBucket * 2;
+		if (pathSlots == null || pathSlots.length < limit){
+			pathSlots = new int[limit];
+			pathParents = new int[limit];
+		}
+		int tail = 0;
+		for (int i = 0; i < slotsPerBucket * 2; i += 2){
+			pathSlots[tail] = index1 + i;
+			pathParents[tail++] = -1;
+			pathSlots[tail] = (index2 + i) | 1;
+			pathParents[tail++] = -1;
+		}
+		for (int head = 0; head < tail && head < maxKicks; head++){
+			int node = pathSlots[head];
+			Object occupant = (node & 1) == 0 ? table1[node] : table2[node & ~1];
+			Object[] altTable;
+			int alt;
+			int altFlag;
+			if ((node & 1) == 0){
+				altTable = table2;
+				alt = getHashIndex2((K) occupant);
+				altFlag = 1;
+			} else {
+				altTable = table1;
+				alt = getHashIndex1((K) occupant);
+				altFlag = 0;
+			}
+			for (int slot = alt; slot < alt + slotsPerBucket * 2; slot += 2){
+				if (altTable[slot] == null){
+					int to = slot | altFlag;
+					int moves = 0;
+					for (int from = head; from >= 0; from = pathParents[from]){
+						moveSlot(pathSlots[from], to);
+						to = pathSlots[from];
+						moves++;
+					}
+					Object[] table = (to & 1) == 0 ? table1 : table2;
+					table[to & ~1] = key;
+					table[(to & ~1) + 1] = value;
+					reference(table, to & ~1, false);
+					// the path only shifted entries, so the table with the empty slot gained one
+					if (altFlag == 0){
+						count1++;
+					} else {
+						count2++;
+					}
+					return moves;
+				}
+				if (tail < limit && !onPath(slot | altFlag, head)){
+					pathSlots[tail] = slot | altFlag;
+					pathParents[tail++] = head;
+				}
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return true if the encoded slot already appears on the path ending at node
+	 */
+	private boolean onPath(int slot, int node){
+		for (int n = node; n >= 0; n = pathParents[n]){
+			if (pathSlots[n] == slot){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Move the entry in one encoded slot to another, leaving the first empty.
+	 */
+	private void moveSlot(int from, int to){
+		Object[] fromTable = (from & 1) == 0 ? table1 : table2;
+		Object[] toTable = (to & 1) == 0 ? table1 : table2;
+		from &= ~1;
+		to &= ~1;
+		toTable[to] = fromTable[from];
+		toTable[to + 1] = fromTable[from + 1];
+		fromTable[from] = null;
+		fromTable[from + 1] = null;
+		touch(toTable, to);
+	}
+	
+	/**
+	 * Set the CLOCK reference bit of the slot whose key is at the given
+	 * offset. Entries moved by displacement get the bit too, so a move
+	 * never makes an entry the next victim.
+	 */
+	private void touch(Object[] table, int slot){
+		reference(table, slot, true);
+	}
+	
+	/**
+	 * Set or clear the CLOCK reference bit of a slot of table1 or table2.
+	 * Clearing matters when a new key takes a slot, as the bit of whatever
+	 * left it is still there.
+	 */
+	private void reference(Object[] table, int slot, boolean referenced){
+		if (ref1 != null){
+			long[] ref = table == table1 ? ref1 : ref2;
+			int bit = slot >>> 1;
+			if (referenced){
+				ref[bit >>> 6] |= 1L << bit;
+			} else {
+				ref[bit >>> 6] &= ~(1L << bit);
+			}
+		}
+	}
+	
+	/**
+	 * Clear the reference bit of a slot.
+	 */
+	private void clearReference(long[] ref, int slot){
+		int bit = slot >>> 1;
+		ref[bit >>> 6] &= ~(1L << bit);
+	}
+	
+	/**
+	 * @return true if the reference bit of the slot is set
+	 */
+	private boolean isReferenced(long[] ref, int slot){
+		int bit = slot >>> 1;
+		return (ref[bit >>> 6] & (1L << bit)) != 0;
+	}
+	
+	/**
+	 * CLOCK restricted to the candidate buckets of a key: evict the first
+	 * entry of either bucket without a reference bit. If every one has it,
+	 * clear them all and evict the first entry.
+	 * 
+	 * @return the encoded slot that was emptied, or -1 if both buckets
+	 * were empty
+	 */
+	private int evictFrom(int index1, int index2){
+		int victim = -1;
+		int first = -1;
+		for (int slot = index1; slot < index1 + slotsPerBucket * 2 && victim < 0; slot += 2){
+			if (table1[slot] != null){
+				first = first < 0 ? slot : first;
+				if (!isReferenced(ref1, slot)){
+					victim = slot;
+				}
+			}
+		}
+		for (int slot = index2; slot < index2 + slotsPerBucket * 2 && victim < 0; slot += 2){
+			if (table2[slot] != null){
+				first = first < 0 ? slot | 1 : first;
+				if (!isReferenced(ref2, slot)){
+					victim = slot | 1;
+				}
+			}
+		}
+		if (victim < 0){
+			if (first < 0){
+				return -1;
+			}
+			for (int slot = 0; slot < slotsPerBucket * 2; slot += 2){
+				clearReference(ref1, index1 + slot);
+				clearReference(ref2, index2 + slot);
+			}
+			victim = first;
+		}
+		removeSlot((victim & 1) == 0 ? table1 : table2, victim & ~1);
+		recorder.eviction();
+		return victim;
+	}
+	
+	/**
+	 * Set how many residents an insert may displace before it gives up and
+	 * falls back to the stash or a rehash. With BFS this bounds the number
+	 * of slots the search examines.
+	 * 
+	 * @param maxKicks the kick limit, at least 1
+	 */
+	public void setMaxKicks(int maxKicks){
+		if (maxKicks < 1){
+			throw new IllegalArgumentException();
+		}
+		this.maxKicks = maxKicks;
+	}
+	
+	/**
+	 * @param kickStrategy how inserts choose which resident to displace
+	 */
+	public void setKickStrategy(KickStrategy kickStrategy){
+		if (kickStrategy == null){
+			throw new IllegalArgumentException();
+		}
+		this.kickStrategy = kickStrategy;
+	}
+	
+	/**
+	 * Turn cache mode on or off. In cache mode the map keeps the table size
+	 * it has when the mode is turned on and never rehashes: when the tables
+	 * are full, or an insert cannot find room by displacement, it evicts an
+	 * entry from the new key's two buckets, preferring one that has not
+	 * been read or updated since it was added or last passed over. New
+	 * keys start out unreferenced, so keys used once go before keys in
+	 * use. This gives approximately least recently used eviction at one
+	 * bit per slot, without displacement chains. Size the map with the
+	 * startSize constructor argument; it holds about maxLoadFactor of its
+	 * slots. The bucketized layout gives each eviction more candidates to
+	 * choose from.
+	 * 
+	 * @param cache true to evict instead of growing
+	 */
+	public void setCacheMode(boolean cache){
+		finishMigration();
+		this.cache = cache;
+		if (cache){
+			ref1 = new long[(capacity() + 63) / 64];
+			ref2 = new long[ref1.length];
+		} else {
+			ref1 = null;
+			ref2 = null;
+		}
+	}
+	
+	/**
+	 * Rebuild the tables on the given pool when they grow, instead of on
+	 * the calling thread. Only rebuilds of tables with at least
+	 * PARALLEL_MIN_SLOTS slots are split up, and only when incremental
+	 * rehashing is off. Pass null to rehash serially again.
+	 * 
+	 * @param pool the pool to rehash on, for instance ForkJoinPool.commonPool()
+	 */
+	public void setParallelRehash(ForkJoinPool pool){
+		this.rehashPool = pool;
+	}
+	
+	/**
+	 * Send this map's events to the recorder, for instance a
+	 * CuckooMapStats. Pass CuckooMapRecorder.NOOP to stop recording.
+	 */
+	public void setRecorder(CuckooMapRecorder recorder){
+		if (recorder == null){
+			throw new IllegalArgumentException();
+		}
+		this.recorder = recorder;
+	}
+	
+	/**
+	 * @param table 1 or 2
+	 * @return the fraction of the table's slots holding an entry
+	 */
+	public double getTableOccupancy(int table){
+		if (table != 1 && table != 2){
+			throw new IllegalArgumentException();
+		}
+		return (double) (table == 1 ? count1 : count2) / capacity();
+	}
+	
+	/**
+	 * @return the offset of the key within the bucket starting at index, or -1
+	 */
+	private int findKey(Object[] table, int index, Object key){
+		for (int slot = index; slot < index + slotsPerBucket * 2; slot += 2){
+			if (key.equals(table[slot])){
+				return slot;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return the offset of the first empty slot in the bucket starting at index, or -1
+	 */
+	private int findEmpty(Object[] table, int index){
+		for (int slot = index; slot < index + slotsPerBucket * 2; slot += 2){
+			if (table[slot] == null){
+				return slot;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * @return the offset of the stashed key, or -1
+	 */
+	private int findStashed(Object key){
+		for (int slot = 0; slot < stashCount * 2; slot += 2){
+			if (key.equals(stash[slot])){
+				return slot;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Take every entry out of the stash and insert it again, which stashes
+	 * it a second time only if its displacement chain still fails. That
+	 * always succeeds, as the emptied stash has room for every entry it
+	 * held.
+	 */
+	private void unstash(){
+		Object[] stashed = stash;
+		int count = stashCount;
+		stash = new Object[STASH_SIZE * 2];
+		stashCount = 0;
+		for (int slot = 0; slot < count * 2; slot += 2){
+			tryInsert(stashed[slot], stashed[slot + 1]);
 		}
+	}
 
-		public int compareTo(Object obj){
-			return key.compareTo(((Bucket) obj).getKey());
+	private int getHashIndex1(K key) {
+		return getHashIndex(key, num1, bits);
+	}
+	
+	private int getHashIndex2(K key) {
+		return getHashIndex(key, num2, bits);
+	}
+	
+	private int getHashIndex(Object key, long num, int bits) {
+		return hashFunction.index(key.hashCode(), num, bits) * slotsPerBucket * 2;
+	}
+	
+	/**
+	 * @return the number of slots in each of the two tables
+	 */
+	private int capacity(){
+		return table1.length / 2;
+	}
+	
+	private boolean isFull(){
+		double loadFactor = (double) size / (capacity()*2);
+		return (loadFactor > maxLoadFactor) ;
+	}
+	
+	/**
+	 * Grow the tables and place the given entry, if key is not null, in the
+	 * larger ones.
+	 */
+	private void rehash(Object key, Object value){
+		long start = System.nanoTime();
+		grow(key, value);
+		homelessKey = null;
+		homelessValue = null;
+		recorder.rehash(System.nanoTime() - start);
+	}
+	
+	/**
+	 * In incremental mode start draining the current tables into ones twice
+	 * as large. If the previous generation is still draining, or the entry
+	 * does not fit even in the new tables, rebuild everything in one pass
+	 * instead, so that an insert never has to wait for a drain that could
+	 * itself need to grow the tables.
+	 */
+	private void grow(Object key, Object value){
+		if (incremental && oldTable1 == null){
+			startMigration(bits + 1);
+			if (key == null || tryInsert(key, value)){
+				return;
+			}
+			key = homelessKey;
+			value = homelessValue;
 		}
+		rebuild(bits + 1, key, value);
 	}
 	
-	public CuckooMap(int startSize){
-		this.table1 = new Bucket[startSize];
-		this.table2 = new Bucket[startSize];
-		size = 0;
-		count1 = startSize;
-		num1 = rand.nextInt(100);
-		num2 = rand.nextInt(100);
+	/**
+	 * Make the current tables the old generation and allocate new ones of
+	 * 2^newBits buckets for later operations to drain it into.
+	 */
+	private void startMigration(int newBits){
+		oldTable1 = table1;
+		oldTable2 = table2;
+		oldNum1 = num1;
+		oldNum2 = num2;
+		oldBits = bits;
+		migrateIndex = 0;
+		allocate(newBits);
+		unstash();
 	}
-
-	public V put(K key, V value){
-		Bucket<K,V> buck = new Bucket(key,value);
-		
-		if (key == null || value == null){
-			throw new IllegalArgumentException();
-		} else if (containsKey(key)){
-			V oldValue;
-			int index1 = getHashIndex1(key);
-			if (table1[index1] != null && table1[index1].getKey().equals(key)){
-				oldValue = (V) table1[index1].getValue();
-				table1[index1].setValue(value);
-				return oldValue;
+	
+	/**
+	 * Move every entry of both generations of tables and the stash, and the
+	 * given entry if key is not null, into new tables of 2^newBits buckets
+	 * in one pass, serially or on rehashPool. If an insert fails even so the
+	 * pass starts over with tables twice as large, so a rebuild never
+	 * triggers another one.
+	 */
+	private void rebuild(int newBits, Object key, Object value){
+		Object[] from1 = table1;
+		Object[] from2 = table2;
+		Object[] old1 = oldTable1;
+		Object[] old2 = oldTable2;
+		Object[] stashed = stash;
+		int stashedCount = stashCount;
+		oldTable1 = null;
+		oldTable2 = null;
+		modCount++;
+		while (true){
+			allocate(newBits);
+			stash = new Object[STASH_SIZE * 2];
+			stashCount = 0;
+			if (reinsertAll(from1, from2, old1, old2, stashed, stashedCount, key, value)){
+				break;
 			}
-			int index2 = getHashIndex2(key);
-			if (table2[index2] != null && table2[index2].getKey().equals(key)){
-				oldValue = (V) table2[index2].getValue();
-				table2[index2].setValue(value);
-				return oldValue;
+			newBits++;
+		}
+		homelessKey = null;
+		homelessValue = null;
+	}
+	
+	/**
+	 * One pass of rebuild over empty tables. The parallel path is only
+	 * taken when there is no old generation to fold in.
+	 * 
+	 * @return false as soon as an entry cannot be placed
+	 */
+	private boolean reinsertAll(Object[] from1, Object[] from2, Object[] old1, Object[] old2,
+			Object[] stashed, int stashedCount, Object key, Object value){
+		if (rehashPool != null && old1 == null && from1.length / 2 >= PARALLEL_MIN_SLOTS){
+			ArrayList<Object> homeless = reinsertParallel(from1, from2);
+			for (int i = 0; i < homeless.size(); i += 2){
+				if (!tryInsert(homeless.get(i), homeless.get(i + 1))){
+					return false;
+				}
 			}
+		} else if (!reinsert(from1) || !reinsert(from2)
+				|| (old1 != null && (!reinsert(old1) || !reinsert(old2)))){
+			return false;
 		}
-		
-		if (isFull() || countPush > table1.length) {
-			rehash();
+		for (int slot = 0; slot < stashedCount * 2; slot += 2){
+			if (!tryInsert(stashed[slot], stashed[slot + 1])){
+				return false;
+			}
 		}
-		
-		int index1 = getHashIndex1(key);
-		if (table1[index1] != null){
-			countPush++;
-			Bucket<K,V> temp = table1[index1];
-			table1[index1] = buck;
-			int index2 = getHashIndex2(temp.getKey());
-			if (table2[index2] != null) {
-				countPush++;
-				Bucket<K,V> temp2 = table2[index2];
-				table2[index2] = temp;
-				return put(temp2.getKey(),temp2.getValue());
-			} 
-			else {
-				table2[index2] = temp;
-				size++;
-				return null;
-			}
-		}
-		else {
-			table1[index1] = buck;
-			size++;
-			return null;
+		return key == null || tryInsert(key, value);
+	}
+	
+	/**
+	 * Insert every pair of an array of interleaved key/value pairs.
+	 * 
+	 * @return false as soon as a pair cannot be placed
+	 */
+	private boolean reinsert(Object[] from){
+		for (int i = 0; i < from.length; i += 2){
+			if (from[i] != null && !tryInsert(from[i], from[i + 1])){
+				return false;
+			}
 		}
+		return true;
 	}
-
-	private int getHashIndex1(K key) {
-		int index = Math.abs((num1*key.hashCode()) % table1.length);
-		return index;
+	
+	/**
+	 * Place every pair of the two arrays of interleaved key/value pairs,
+	 * which must all have distinct keys absent from the map, using
+	 * rehashPool. Does not change size.
+	 */
+	private void place(Object[] from1, Object[] from2){
+		ArrayList<Object> homeless = reinsertParallel(from1, from2);
+		for (int i = 0; i < homeless.size(); i += 2){
+			insert(homeless.get(i), homeless.get(i + 1));
+		}
 	}
 	
-	private int getHashIndex2(K key) {
-		int index = Math.abs((num2*key.hashCode()) % table2.length);
-		return index;
+	/**
+	 * Place what fits of the two arrays of pairs without displacing
+	 * anything, on rehashPool.
+	 * 
+	 * @return the pairs that found both their buckets full
+	 */
+	private ArrayList<Object> reinsertParallel(Object[] from1, Object[] from2){
+		ReinsertTask task = new ReinsertTask(from1, from2, 0, from1.length + from2.length);
+		rehashPool.invoke(task);
+		count1 += task.placed1;
+		count2 += task.placed2;
+		return task.homeless;
 	}
 	
-	private boolean isFull(){
-		double loadFactor = (double) size / (table1.length*2);
-		return (loadFactor > MAX_LOAD_FACTOR) ;
-	}
-	
-	private void rehash(){
-		Bucket[] oldTable1 = table1;
-		Bucket[] oldTable2 = table2;
-		num1 = rand.nextInt(100);
-		num2 = rand.nextInt(100);
-		int oldSize = table1.length;
-		int newSize = (oldSize*2);
-		table1 = new Bucket[newSize];
-		table2 = new Bucket[newSize];
-		size = 0;
-		countPush = 0;
+	/**
+	 * Moves the old slots in [start, end), counting oldTable1 and then
+	 * oldTable2, into the current tables without displacing anything.
+	 * Splits in half down to PARALLEL_CHUNK slots. Entries that find both
+	 * buckets full are collected in homeless as key/value pairs.
+	 */
+	private class ReinsertTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final Object[] oldTable1;
+		private final Object[] oldTable2;
+		private final int start;
+		private final int end;
+		private int placed1;
+		private int placed2;
+		private ArrayList<Object> homeless = new ArrayList<Object>();
 		
-		for (int i=0 ; i < oldTable1.length ; i++){
-			if (oldTable1[i] != null){
-				put((K)oldTable1[i].getKey(), (V)oldTable1[i].getValue());
+		ReinsertTask(Object[] oldTable1, Object[] oldTable2, int start, int end){
+			this.oldTable1 = oldTable1;
+			this.oldTable2 = oldTable2;
+			this.start = start;
+			this.end = end;
+		}
+		
+		protected void compute(){
+			if (end - start > PARALLEL_CHUNK * 2){
+				int middle = (start + end) >>> 1 & ~1;
+				ReinsertTask left = new ReinsertTask(oldTable1, oldTable2, start, middle);
+				ReinsertTask right = new ReinsertTask(oldTable1, oldTable2, middle, end);
+				invokeAll(left, right);
+				placed1 = left.placed1 + right.placed1;
+				placed2 = left.placed2 + right.placed2;
+				homeless = left.homeless;
+				homeless.addAll(right.homeless);
+				return;
+			}
+			for (int i = start; i < end; i += 2){
+				Object[] from = i < oldTable1.length ? oldTable1 : oldTable2;
+				int slot = i < oldTable1.length ? i : i - oldTable1.length;
+				Object key = from[slot];
+				if (key == null){
+					continue;
+				}
+				Object value = from[slot + 1];
+				if (claim(table1, getHashIndex(key, num1, bits), key, value)){
+					placed1++;
+				} else if (claim(table2, getHashIndex(key, num2, bits), key, value)){
+					placed2++;
+				} else {
+					homeless.add(key);
+					homeless.add(value);
+				}
 			}
 		}
-		for (int i=0 ; i < oldTable2.length ; i++){
-			if (oldTable2[i] != null){
-				put((K) oldTable2[i].getKey(), (V) oldTable2[i].getValue());
+		
+		/**
+		 * @return true if the pair went into an empty slot of the bucket
+		 */
+		private boolean claim(Object[] table, int index, Object key, Object value){
+			for (int slot = index; slot < index + slotsPerBucket * 2; slot += 2){
+				if (table[slot] == null && SLOTS.compareAndSet(table, slot, (Object) null, key)){
+					// no one else writes a claimed slot, and invoke publishes it
+					table[slot + 1] = value;
+					return true;
+				}
 			}
+			return false;
 		}
 	}
 	
 	@Override
 	public V get(Object key){
-		int index1 = getHashIndex1((K) key);
-		int index2 = getHashIndex2((K) key);
 		if (key == null){
 			throw new IllegalArgumentException();
 		}
-		if (containsKey(key)){
-			Bucket<K,V> first = table1[index1];
-			if (first != null && ((first.getKey()).equals(key))) {
-				return first.getValue();
+		migrate(MIGRATE_STEP);
+		return lookup(key, getHashIndex1((K) key), getHashIndex2((K) key));
+	}
+	
+	/**
+	 * Find the value of a key whose indices in the current tables are
+	 * already known.
+	 */
+	private V lookup(Object key, int index1, int index2){
+		int slot = findKey(table1, index1, key);
+		if (slot >= 0) {
+			recorder.hit(1);
+			touch(table1, slot);
+			return (V) table1[slot + 1];
+		}
+		slot = findKey(table2, index2, key);
+		if (slot >= 0) {
+			recorder.hit(2);
+			touch(table2, slot);
+			return (V) table2[slot + 1];
+		}
+		if (oldTable1 != null){
+			slot = findKey(oldTable1, getHashIndex(key, oldNum1, oldBits), key);
+			if (slot >= 0) {
+				recorder.hit(0);
+				return (V) oldTable1[slot + 1];
 			}
-			Bucket<K,V> second = table2[index2];
-			if (second != null && ((second.getKey()).equals(key))) {
-				return second.getValue();
+			slot = findKey(oldTable2, getHashIndex(key, oldNum2, oldBits), key);
+			if (slot >= 0) {
+				recorder.hit(0);
+				return (V) oldTable2[slot + 1];
+			}
+		}
+		if (stashCount > 0){
+			slot = findStashed(key);
+			if (slot >= 0) {
+				recorder.hit(0);
+				return (V) stash[slot + 1];
 			}
 		}
+		recorder.miss();
 		return null;
 	}
 	
@@ -208,38 +1289,212 @@ public class CuckooMap<K extends Hashable, V> implements Map<K, V> {
 		if (size() == 0){
 			return null;
 		}
-		int index1 = getHashIndex1((K) key);
-		int index2 = getHashIndex2((K) key);
-		if (containsKey(key)){
-			if (table1[index1].getKey().equals(key)){
-				oldValue = (V) table1[index1].getValue();
-				table1[index1] = null;
-				return oldValue;
+		migrate(MIGRATE_STEP);
+		Object[] table = table1;
+		int slot = findKey(table, getHashIndex1((K) key), key);
+		if (slot < 0){
+			table = table2;
+			slot = findKey(table, getHashIndex2((K) key), key);
+		}
+		if (slot < 0 && oldTable1 != null){
+			table = oldTable1;
+			slot = findKey(table, getHashIndex(key, oldNum1, oldBits), key);
+			if (slot < 0){
+				table = oldTable2;
+				slot = findKey(table, getHashIndex(key, oldNum2, oldBits), key);
 			}
-			if (table2[index2].getKey().equals(key)){
-				oldValue = (V) table2[index2].getValue();
-				table2[index2] = null;
-				return oldValue;
+		}
+		if (slot < 0 && stashCount > 0){
+			table = stash;
+			slot = findStashed(key);
+		}
+		if (slot < 0){
+			return null;
+		}
+		oldValue = (V) table[slot + 1];
+		removeSlot(table, slot);
+		shrinkIfSparse();
+		return oldValue;
+	}
+	
+	/**
+	 * With automatic shrinking on, start moving to smaller tables if the
+	 * map has fallen below SHRINK_LOAD_FACTOR and no rehash is under way.
+	 */
+	private void shrinkIfSparse(){
+		if (autoShrink && !cache && oldTable1 == null && bits > initialBits
+				&& size < SHRINK_LOAD_FACTOR * capacity() * 2){
+			// rebuild a few slots at a time rather than all at once
+			int slots = (int) Math.ceil(size / (4 * SHRINK_LOAD_FACTOR));
+			startMigration(Math.max(initialBits, Math.min(bits - 1, bucketBits(slots))));
+		}
+	}
+	
+	/**
+	 * Empty the slot whose key is at the given offset of a table, the old
+	 * generation or the stash.
+	 */
+	private void removeSlot(Object[] table, int slot){
+		if (table == stash){
+			// keep the stash packed by moving its last entry into the hole
+			stashCount--;
+			stash[slot] = stash[stashCount * 2];
+			stash[slot + 1] = stash[stashCount * 2 + 1];
+			stash[stashCount * 2] = null;
+			stash[stashCount * 2 + 1] = null;
+		} else {
+			table[slot] = null;
+			table[slot + 1] = null;
+			if (table == table1){
+				count1--;
+			} else if (table == table2){
+				count2--;
 			}
 		}
-		return null;
+		size--;
+		modCount++;
+	}
+	
+	/**
+	 * Turn incremental rehashing on or off. When it is on, growing the map
+	 * allocates the bigger tables and then drains the old ones a few slots
+	 * at a time during later operations instead of reinserting every entry
+	 * inside the put that triggered the resize.
+	 * 
+	 * @param incremental true to spread rehash work across operations
+	 */
+	public void setIncrementalRehash(boolean incremental){
+		if (!incremental){
+			finishMigration();
+		}
+		this.incremental = incremental;
+	}
+	
+	/**
+	 * @return true while entries of the previous generation of tables
+	 * are still waiting to be moved into the current tables
+	 */
+	public boolean isRehashing(){
+		return oldTable1 != null;
+	}
+	
+	/**
+	 * Move up to the given number of old generation slots into the
+	 * current tables.
+	 */
+	private void migrate(int slots){
+		if (walkers > 0 && walkModCount == modCount){
+			return;
+		}
+		boolean migrating = oldTable1 != null;
+		for (int i = 0; i < slots && oldTable1 != null; i++){
+			migrateSlot();
+		}
+		if (migrating && oldTable1 == null){
+			// removes made while a shrink ran may have left even the new tables sparse
+			shrinkIfSparse();
+		}
+	}
+	
+	/**
+	 * Move the rest of the old generation at once. This ends any walk, as
+	 * it ignores the pause.
+	 */
+	private void finishMigration(){
+		if (oldTable1 != null){
+			modCount++;
+		}
+		while (oldTable1 != null){
+			migrateSlot();
+		}
+	}
+	
+	private void pauseMigration(){
+		if (walkModCount != modCount){
+			walkModCount = modCount;
+			walkers = 0;
+		}
+		walkers++;
+	}
+	
+	/**
+	 * End a walk started when modCount was startModCount, unless a change
+	 * since then has already ended it.
+	 */
+	private void resumeMigration(int startModCount){
+		if (walkModCount == startModCount && walkers > 0){
+			walkers--;
+		}
+	}
+	
+	/**
+	 * @return the number of tables holding entries, leaving out the stash:
+	 * 4 during an incremental rehash, else 2
+	 */
+	private int walkedTableCount(){
+		return oldTable1 == null ? 2 : 4;
+	}
+	
+	/**
+	 * @return table1, table2, oldTable1 or oldTable2 for 0 to 3
+	 */
+	private Object[] walkedTable(int index){
+		switch (index){
+		case 0:
+			return table1;
+		case 1:
+			return table2;
+		case 2:
+			return oldTable1;
+		default:
+			return oldTable2;
+		}
+	}
+	
+	/**
+	 * Move the old slot at migrateIndex into the current tables. The old
+	 * generation is dropped as soon as its last slot has been claimed, so
+	 * a rehash triggered by the reinsertion starts from a clean state. A
+	 * rehash while slots remain rebuilds both generations in one pass
+	 * rather than starting another drain.
+	 */
+	private void migrateSlot(){
+		Object[] from = oldTable1;
+		int slot = migrateIndex;
+		if (slot >= oldTable1.length){
+			from = oldTable2;
+			slot -= oldTable1.length;
+		}
+		migrateIndex += 2;
+		if (migrateIndex >= oldTable1.length + oldTable2.length){
+			oldTable1 = null;
+			oldTable2 = null;
+		}
+		K key = (K) from[slot];
+		if (key != null){
+			V value = (V) from[slot + 1];
+			from[slot] = null;
+			from[slot + 1] = null;
+			insert(key, value);
+		}
 	}
 	
 	@Override
 	public boolean containsValue(Object value){
 		V valueCast = (V) value;
-		for (int i = 0; i<table1.length; i++){
-			if (table1[i] != null){
-				if (table1[i].getValue().equals(valueCast)){
-					return true;
+		for (int t = 0; t < walkedTableCount(); t++){
+			Object[] table = walkedTable(t);
+			for (int i = 0; i < table.length; i += 2){
+				if (table[i] != null){
+					if (table[i + 1].equals(valueCast)){
+						return true;
+					}
 				}
 			}
 		}
-		for (int i = 0 ; i < table2.length ; i++){
-			if (table2[i] != null){
-				if (table2[i].getValue().equals(valueCast)) {
-					return true;
-				}
+		for (int i = 0 ; i < stashCount * 2 ; i += 2){
+			if (stash[i + 1].equals(valueCast)) {
+				return true;
 			}
 		}
 		return false;
@@ -247,9 +1502,8 @@ public class CuckooMap<K extends Hashable, V> implements Map<K, V> {
 	
 	@Override
 	/**
-	 * Check if the index of the HashIndex location is null,
-	 * if it is not null check the values of the parameter's key and
-	 * the bucket's key.
+	 * Check if the key is stored in either HashIndex bucket and equals
+	 * the parameter's key.
 	 * 
 	 * @return true if the key is found, false otherwise.
 	 */
@@ -258,41 +1512,41 @@ public class CuckooMap<K extends Hashable, V> implements Map<K, V> {
 		if (keyCast == null){
 			throw new IllegalArgumentException();
 		} else {
+			 migrate(MIGRATE_STEP);
+			 // recorded like lookup, but without touching: a probe is not a use
 			 int keyCode1 = getHashIndex1(keyCast);
+			 if (findKey(table1, keyCode1, keyCast) >= 0){
+				 recorder.hit(1);
+				 return true;
+			 }
 			 int keyCode2 = getHashIndex2(keyCast);
-			 if (table1[keyCode1] != null){
-				 if (table1[keyCode1].getKey().equals(keyCast)){
-					 return true;
-				 }
+			 if (findKey(table2, keyCode2, keyCast) >= 0){
+				 recorder.hit(2);
+				 return true;
 			 }
-			 if (table2[keyCode2] != null){
-				 if (table2[keyCode2].getKey().equals(keyCast)) {
-					 return true;
-				 }
+			 if ((oldTable1 != null
+					 && (findKey(oldTable1, getHashIndex(keyCast, oldNum1, oldBits), keyCast) >= 0
+					 || findKey(oldTable2, getHashIndex(keyCast, oldNum2, oldBits), keyCast) >= 0))
+					 || (stashCount > 0 && findStashed(keyCast) >= 0)){
+				 recorder.hit(0);
+				 return true;
 			 }
+			 recorder.miss();
 			 return false;
 		}
 	}
 	
 	/**
-	 * Return all the values in the hash tables. If there are no values return
-	 * an empty collection utilizing ArrayList.
+	 * Return a live view of the values in the hash tables. Removing through
+	 * its iterator removes the entry from the map.
 	 * 
 	 * @return a collection of all the values in the hash table.
 	 */
 	public Collection<V> values(){
-		ArrayList set = new ArrayList();
-		for (int i = 0 ; i<table1.length ; i++){
-			if (table1[i] != null){
-				set.add(table1[i].getValue());
-			}
-		}
-		for (int i = 0 ; i<table2.length ; i++){
-			if (table2[i] != null){
-				set.add(table2[i].getValue());
-			}
+		if (values == null){
+			values = new Values();
 		}
-		return set;
+		return values;
 	}
 	
 	public int size(){
@@ -304,64 +1558,278 @@ public class CuckooMap<K extends Hashable, V> implements Map<K, V> {
 	}
 	
 	/**
-	 * Clear the hash tables. This method should also reset
-	 * the backing array to the initial capacity. 
+	 * Clear the hash tables and reset them to the size the map was created
+	 * with, or in cache mode to the cache's size.
 	 */
 	public void clear(){
-		count1 = 0;
-		count2 = 0;
 		size = 0;
-		table1 = new Bucket[10];
-		table2 = new Bucket[10];
+		oldTable1 = null;
+		oldTable2 = null;
+		stash = new Object[STASH_SIZE * 2];
+		stashCount = 0;
+		modCount++;
+		allocate(cache ? bits : initialBits);
+	}
+	
+	/**
+	 * Shrink the tables to the smallest size that holds the current
+	 * entries under the maximum load factor, rebuilding them in one pass.
+	 * Does nothing in cache mode.
+	 */
+	public void trimToSize(){
+		if (cache){
+			return;
+		}
+		finishMigration();
+		int slots = (int) Math.ceil(size / (2 * maxLoadFactor));
+		int newBits = bucketBits(slots);
+		if (newBits < bits){
+			long start = System.nanoTime();
+			rebuild(newBits, null, null);
+			recorder.rehash(System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Turn automatic shrinking on or off. When it is on, a remove that
+	 * leaves the map less than a fifth full shrinks the tables to between
+	 * a fifth and two fifths full, never below the size the map was
+	 * created with. The smaller tables are filled
+	 * from the old ones a few slots per operation, as with incremental
+	 * rehashing, so no single remove pays for the whole rebuild.
+	 * 
+	 * @param autoShrink true to shrink as entries are removed
+	 */
+	public void setAutoShrink(boolean autoShrink){
+		this.autoShrink = autoShrink;
 	}
 	
+	/**
+	 * Return a live view of the keys. Its iterator walks the tables in slot
+	 * order, supports remove, and throws ConcurrentModificationException if
+	 * the map gains or loses a key other than through it.
+	 */
 	@Override
 	public Set<K> keySet() {
-		Set<K> set = new TreeSet<K>();
-		if (isEmpty()) {
-			return set;
-		} else {
-			for (int i = 0; i < table1.length; i++) {
-				if (table1[i] != null) {
-					set.add((K) table1[i].getKey());
-				}
-			}
-			for (int i = 0; i < table2.length; i++) {
-				if (table2[i] != null) {
-					set.add((K) table2[i].getKey());
-				}
-			}
-			return set;
-		}	
+		if (keySet == null) {
+			keySet = new KeySet();
+		}
+		return keySet;
 	}
 	
+	/**
+	 * Return a live view of the entries, iterated like keySet. Entries
+	 * write setValue through to the map.
+	 */
 	@Override
 	public Set<Map.Entry<K, V>> entrySet() {
-		Set<Map.Entry<K, V>> set = new TreeSet<Map.Entry<K, V>>();
-		if (isEmpty()) {
-			return set;
-		} else {
-			for (int i = 0; i < table1.length; i++) {
-				if (table1[i] != null) {
-					set.add(table1[i]);
+		if (entrySet == null) {
+			entrySet = new EntrySet();
+		}
+		return entrySet;
+	}
+	
+	/**
+	 * Call the action once for every entry without creating any entry
+	 * objects.
+	 * 
+	 * Throw a ConcurrentModificationException if the action adds or
+	 * removes a key.
+	 */
+	@Override
+	public void forEach(BiConsumer<? super K, ? super V> action) {
+		if (action == null) {
+			throw new IllegalArgumentException();
+		}
+		int expectedModCount = modCount;
+		boolean pausing = oldTable1 != null;
+		if (pausing) {
+			pauseMigration();
+		}
+		try {
+			int tables = walkedTableCount();
+			for (int t = 0; t < tables; t++) {
+				Object[] table = walkedTable(t);
+				for (int i = 0; i < table.length; i += 2) {
+					if (table[i] != null) {
+						action.accept((K) table[i], (V) table[i + 1]);
+					}
 				}
 			}
-			for (int i = 0; i < table2.length; i++) {
-				if (table2[i] != null) {
-					set.add(table2[i]);
-				}
+			Object[] table = stash;
+			for (int i = 0; i < stashCount * 2; i += 2) {
+				action.accept((K) table[i], (V) table[i + 1]);
 			}
-			return set;
+		} finally {
+			if (pausing) {
+				resumeMigration(expectedModCount);
+			}
+		}
+		if (modCount != expectedModCount) {
+			throw new ConcurrentModificationException();
 		}
 	}
-
+	
 	@Override
 	public void putAll(Map<? extends K, ? extends V> m) {
 		if ( m == null) {
 			throw new IllegalArgumentException();
 		}
+		ensureCapacity(size + m.size());
+		if (size == 0 && !cache && rehashPool != null && m.size() >= PARALLEL_MIN_SLOTS){
+			// the keys of a map are distinct, so they can all be placed at once.
+			// A cache evicts as it fills, so it takes the path below, where
+			// size follows each put
+			Object[] pairs = new Object[m.size() * 2];
+			int count = 0;
+			for (Map.Entry<? extends K, ? extends V> item : m.entrySet() ){
+				if (item.getKey() == null || item.getValue() == null){
+					throw new IllegalArgumentException();
+				}
+				pairs[count++] = item.getKey();
+				pairs[count++] = item.getValue();
+			}
+			place(pairs, new Object[0]);
+			size = count / 2;
+			modCount++;
+			return;
+		}
+		Object[] keys = new Object[Math.min(m.size(), BATCH_SIZE)];
+		Object[] values = new Object[keys.length];
+		int count = 0;
 		for (Map.Entry<? extends K, ? extends V> item : m.entrySet() ){
-			put((K) item.getKey(), (V) item.getValue());
+			keys[count] = item.getKey();
+			values[count++] = item.getValue();
+			if (count == keys.length){
+				putBatch(keys, values, count);
+				count = 0;
+			}
+		}
+		putBatch(keys, values, count);
+	}
+	
+	/**
+	 * Put every entry of the stream, which may be parallel. Later entries
+	 * for a key replace earlier ones, as with put. The entries are gathered
+	 * first so the tables are resized at most once.
+	 */
+	public void putAll(Stream<? extends Map.Entry<? extends K, ? extends V>> entries){
+		if (entries == null){
+			throw new IllegalArgumentException();
+		}
+		Object[] pairs = entries.flatMap(e -> Stream.of(e.getKey(), e.getValue())).toArray();
+		ensureCapacity(size + pairs.length / 2);
+		Object[] keys = new Object[pairs.length / 2];
+		Object[] values = new Object[keys.length];
+		for (int i = 0; i < keys.length; i++){
+			keys[i] = pairs[i * 2];
+			values[i] = pairs[i * 2 + 1];
+		}
+		putBatch(keys, values, keys.length);
+	}
+	
+	/**
+	 * Grow the tables, if needed, so that expectedSize entries stay under
+	 * the maximum load factor, or half full with one slot per bucket,
+	 * where displacement fails much past that. Growing rebuilds the tables once at the
+	 * final size rather than doubling step by step, and folds in any
+	 * incremental rehash under way. A failed displacement chain can still
+	 * force a rehash, though rarely.
+	 * 
+	 * @param expectedSize the number of entries the map should have room for
+	 */
+	public void ensureCapacity(int expectedSize){
+		if (cache){
+			return;
+		}
+		double load = slotsPerBucket == 1 ? SINGLE_SLOT_SIZING_LOAD : maxLoadFactor;
+		int slots = (int) Math.min(Integer.MAX_VALUE, (long) Math.ceil(expectedSize / (2 * load)));
+		int newBits = bucketBits(slots);
+		if (newBits > bits){
+			long start = System.nanoTime();
+			rebuild(newBits, null, null);
+			recorder.rehash(System.nanoTime() - start);
+		}
+	}
+	
+	/**
+	 * Look up a batch of keys. The keys are hashed BATCH_SIZE at a time
+	 * before any of them is probed, which lets the processor overlap the
+	 * cache misses of independent probes instead of taking them one after
+	 * another.
+	 * 
+	 * Throw an IllegalArgumentException if any key is null or out is
+	 * shorter than keys.
+	 * 
+	 * @param keys the keys to look up
+	 * @param out receives the value of keys[i] at out[i], or null if absent
+	 */
+	public void getAll(K[] keys, V[] out){
+		if (keys == null || out == null || out.length < keys.length){
+			throw new IllegalArgumentException();
+		}
+		allocateBatch();
+		for (int start = 0; start < keys.length; start += BATCH_SIZE){
+			int end = Math.min(keys.length, start + BATCH_SIZE);
+			migrate(MIGRATE_STEP);
+			for (int i = start; i < end; i++){
+				if (keys[i] == null){
+					throw new IllegalArgumentException();
+				}
+				batchIndex1[i - start] = getHashIndex1(keys[i]);
+				batchIndex2[i - start] = getHashIndex2(keys[i]);
+			}
+			for (int i = start; i < end; i++){
+				out[i] = lookup(keys[i], batchIndex1[i - start], batchIndex2[i - start]);
+			}
+		}
+	}
+	
+	/**
+	 * Put a batch of entries, hashing BATCH_SIZE keys at a time before
+	 * probing any of them as getAll does.
+	 * 
+	 * Throw an IllegalArgumentException if any key or value is null or the
+	 * arrays differ in length.
+	 * 
+	 * @param keys the keys to put
+	 * @param values the value for keys[i] is values[i]
+	 */
+	public void putAll(K[] keys, V[] values){
+		if (keys == null || values == null || keys.length != values.length){
+			throw new IllegalArgumentException();
+		}
+		putBatch(keys, values, keys.length);
+	}
+	
+	private void putBatch(Object[] keys, Object[] values, int count){
+		allocateBatch();
+		for (int start = 0; start < count; start += BATCH_SIZE){
+			int end = Math.min(count, start + BATCH_SIZE);
+			migrate(MIGRATE_STEP);
+			for (int i = start; i < end; i++){
+				if (keys[i] == null || values[i] == null){
+					throw new IllegalArgumentException();
+				}
+				batchIndex1[i - start] = getHashIndex(keys[i], num1, bits);
+				batchIndex2[i - start] = getHashIndex(keys[i], num2, bits);
+			}
+			Object[] hashedTable = table1;
+			for (int i = start; i < end; i++){
+				if (table1 == hashedTable){
+					putEntry((K) keys[i], (V) values[i], batchIndex1[i - start], batchIndex2[i - start]);
+				} else {
+					// an insert earlier in the batch rehashed the tables
+					putEntry((K) keys[i], (V) values[i]);
+				}
+			}
+		}
+	}
+	
+	private void allocateBatch(){
+		if (batchIndex1 == null){
+			batchIndex1 = new int[BATCH_SIZE];
+			batchIndex2 = new int[BATCH_SIZE];
 		}
 	}
 	
@@ -0,0 +1,49 @@
+/**
+ * Receives events from a CuckooMap as they happen. Every method does
+ * nothing by default, and a map starts out with NOOP, so a map that is not
+ * being watched only pays for calls the JIT inlines to nothing.
+ * CuckooMapStats is the recorder that keeps the numbers.
+ */
+public interface CuckooMapRecorder {
+
+	CuckooMapRecorder NOOP = new CuckooMapRecorder() {
+	};
+
+	/**
+	 * An insert placed its key after displacing that many residents.
+	 */
+	default void kicks(int kicks) {
+	}
+
+	/**
+	 * An insert gave up displacing residents and stashed its key or
+	 * grew the tables.
+	 */
+	default void kickFailure() {
+	}
+
+	/**
+	 * The tables were grown, taking the given time.
+	 */
+	default void rehash(long nanos) {
+	}
+
+	/**
+	 * A map in cache mode evicted an entry to make room.
+	 */
+	default void eviction() {
+	}
+
+	/**
+	 * A lookup found its key: in table 1 or 2, or 0 for the old
+	 * generation of an incremental rehash or the stash.
+	 */
+	default void hit(int table) {
+	}
+
+	/**
+	 * A lookup did not find its key.
+	 */
+	default void miss() {
+	}
+}
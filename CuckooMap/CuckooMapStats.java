@@ -0,0 +1,182 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects statistics for one CuckooMap: how full each table is, how long
+ * displacement chains get, how often and for how long the tables are
+ * rehashed, which table lookups find their keys in, and in cache mode how
+ * many entries are evicted.
+ *
+ * Creating one attaches it to the map. The counters are plain fields
+ * updated by the thread using the map, so values read from another thread,
+ * for instance through JMX after register, may be slightly behind.
+ */
+public class CuckooMapStats implements CuckooMapRecorder, CuckooMapStatsMXBean {
+
+	private final CuckooMap<?, ?> map;
+	private long[] kickHistogram = new long[33];
+	private long kickFailures;
+	private long rehashCount;
+	private long rehashNanos;
+	private long maxRehashNanos;
+	private long table1Hits;
+	private long table2Hits;
+	private long otherHits;
+	private long misses;
+	private long evictions;
+
+	public CuckooMapStats(CuckooMap<?, ?> map) {
+		if (map == null) {
+			throw new IllegalArgumentException();
+		}
+		this.map = map;
+		map.setRecorder(this);
+	}
+
+	public void kicks(int kicks) {
+		kickHistogram[32 - Integer.numberOfLeadingZeros(kicks)]++;
+	}
+
+	public void kickFailure() {
+		kickFailures++;
+	}
+
+	public void rehash(long nanos) {
+		rehashCount++;
+		rehashNanos += nanos;
+		maxRehashNanos = Math.max(maxRehashNanos, nanos);
+	}
+
+	public void eviction() {
+		evictions++;
+	}
+
+	public void hit(int table) {
+		if (table == 1) {
+			table1Hits++;
+		} else if (table == 2) {
+			table2Hits++;
+		} else {
+			otherHits++;
+		}
+	}
+
+	public void miss() {
+		misses++;
+	}
+
+	public int getSize() {
+		return map.size();
+	}
+
+	/**
+	 * @return the fraction of table1's slots holding an entry
+	 */
+	public double getTable1Occupancy() {
+		return map.getTableOccupancy(1);
+	}
+
+	public double getTable2Occupancy() {
+		return map.getTableOccupancy(2);
+	}
+
+	/**
+	 * Distribution of displacement chain lengths, including the
+	 * reinsertions done by rehashing. Entry 0 counts inserts that needed no
+	 * kicks and entry i those that needed between 2^(i-1) and 2^i - 1.
+	 *
+	 * @return a copy of the kick length histogram
+	 */
+	public long[] getKickHistogram() {
+		return kickHistogram.clone();
+	}
+
+	/**
+	 * @return the number of inserts that hit the kick limit and had to be
+	 * stashed or trigger a rehash
+	 */
+	public long getKickFailures() {
+		return kickFailures;
+	}
+
+	public long getRehashCount() {
+		return rehashCount;
+	}
+
+	/**
+	 * @return the total time spent growing the tables. With incremental
+	 * rehashing this leaves out the migration spread over later operations.
+	 */
+	public long getRehashNanos() {
+		return rehashNanos;
+	}
+
+	public long getMaxRehashNanos() {
+		return maxRehashNanos;
+	}
+
+	public long getTable1Hits() {
+		return table1Hits;
+	}
+
+	public long getTable2Hits() {
+		return table2Hits;
+	}
+
+	/**
+	 * @return lookups answered from the old generation or the stash
+	 */
+	public long getOtherHits() {
+		return otherHits;
+	}
+
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return the entries evicted by a map in cache mode
+	 */
+	public long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return the fraction of successful lookups answered from table1, or
+	 * 0 if there were none
+	 */
+	public double getTable1HitRatio() {
+		long hits = table1Hits + table2Hits + otherHits;
+		return hits == 0 ? 0 : (double) table1Hits / hits;
+	}
+
+	/**
+	 * Zero every counter.
+	 */
+	public void reset() {
+		kickHistogram = new long[33];
+		kickFailures = 0;
+		rehashCount = 0;
+		rehashNanos = 0;
+		maxRehashNanos = 0;
+		table1Hits = 0;
+		table2Hits = 0;
+		otherHits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	/**
+	 * Publish these statistics on the platform MBean server as
+	 * CuckooMap:type=Stats,name=&lt;name&gt;.
+	 *
+	 * @return the name registered, for unregistering later
+	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("CuckooMap:type=Stats,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+}
@@ -0,0 +1,36 @@
+/**
+ * The JMX view of a CuckooMapStats. See CuckooMapStats for what each
+ * attribute means.
+ */
+public interface CuckooMapStatsMXBean {
+
+	int getSize();
+
+	double getTable1Occupancy();
+
+	double getTable2Occupancy();
+
+	long[] getKickHistogram();
+
+	long getKickFailures();
+
+	long getRehashCount();
+
+	long getRehashNanos();
+
+	long getMaxRehashNanos();
+
+	long getTable1Hits();
+
+	long getTable2Hits();
+
+	long getOtherHits();
+
+	long getMisses();
+
+	long getEvictions();
+
+	double getTable1HitRatio();
+
+	void reset();
+}
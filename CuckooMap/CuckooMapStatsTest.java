@@ -0,0 +1,211 @@
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+/**
+ * CuckooMapStats counters checked against workloads whose events are
+ * known in advance.
+ */
+public class CuckooMapStatsTest {
+
+    /**
+     * A key whose hashCode is the same for every instance.
+     */
+    private static class Collider {
+        private final int id;
+
+        Collider(int id) {
+            this.id = id;
+        }
+
+        public int hashCode() {
+            return 42;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Collider && ((Collider) o).id == id;
+        }
+    }
+
+    /**
+     * Bucket 0 counts inserts without kicks and bucket i those with
+     * 2^(i-1) to 2^i - 1 kicks.
+     */
+    @Test
+    public void testKickHistogramBuckets() {
+        CuckooMapStats stats = new CuckooMapStats(new CuckooMap<Integer, Integer>(4));
+        int[] kicks = {0, 0, 1, 2, 3, 4, 7, 8, 15, 16, Integer.MAX_VALUE};
+        for (int k : kicks) {
+            stats.kicks(k);
+        }
+        long[] expected = new long[33];
+        expected[0] = 2;
+        expected[1] = 1;
+        expected[2] = 2;
+        expected[3] = 2;
+        expected[4] = 2;
+        expected[5] = 1;
+        expected[31] = 1;
+        assertArrayEquals(expected, stats.getKickHistogram());
+        stats.reset();
+        assertArrayEquals(new long[33], stats.getKickHistogram());
+    }
+
+    /**
+     * Without a rehash every new key is one insert, so the histogram adds
+     * up to the number of keys, and a sparse map places most of them
+     * without kicks.
+     */
+    @Test
+    public void testKickHistogramCountsInserts() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4096, 1);
+        CuckooMapStats stats = new CuckooMapStats(map);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i * 7919, i);
+        }
+        map.put(0, -1);
+        assertEquals(0, stats.getRehashCount());
+        assertEquals(0, stats.getKickFailures());
+        long total = 0;
+        for (long count : stats.getKickHistogram()) {
+            total += count;
+        }
+        assertEquals(1000, total);
+        assertTrue(stats.getKickHistogram()[0] > 500);
+    }
+
+    @Test
+    public void testRehashCountedOnGrow() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(8);
+        CuckooMapStats stats = new CuckooMapStats(map);
+        for (int i = 0; i < 5; i++) {
+            map.put(i, i);
+        }
+        assertEquals(0, stats.getRehashCount());
+        assertEquals(0, stats.getRehashNanos());
+        for (int i = 5; i < 10000; i++) {
+            map.put(i, i);
+        }
+        long count = stats.getRehashCount();
+        long nanos = stats.getRehashNanos();
+        assertTrue(count > 0);
+        assertTrue(nanos > 0);
+        assertTrue(stats.getMaxRehashNanos() > 0 && stats.getMaxRehashNanos() <= nanos);
+
+        map.ensureCapacity(100000);
+        assertEquals(count + 1, stats.getRehashCount());
+        assertTrue(stats.getRehashNanos() > nanos);
+        assertEquals(10000, map.size());
+    }
+
+    /**
+     * Colliding keys share their buckets, so with one slot a bucket one
+     * sits in each table and the other four in the stash.
+     */
+    @Test
+    public void testHitsByTable() {
+        CuckooMap<Collider, Integer> map = new CuckooMap<Collider, Integer>(64);
+        CuckooMapStats stats = new CuckooMapStats(map);
+        for (int i = 0; i < 6; i++) {
+            map.put(new Collider(i), i);
+        }
+        assertEquals(4, stats.getKickFailures());
+        stats.reset();
+        for (int i = 0; i < 7; i++) {
+            map.get(new Collider(i));
+        }
+        checkHits(stats, 1, 1, 4, 1);
+
+        // containsKey counts the same way
+        stats.reset();
+        for (int i = 0; i < 7; i++) {
+            map.containsKey(new Collider(i));
+        }
+        checkHits(stats, 1, 1, 4, 1);
+        assertEquals(1.0 / 6, stats.getTable1HitRatio(), 1e-12);
+    }
+
+    @Test
+    public void testMisses() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(64, CuckooMap.BUCKET_SLOTS);
+        CuckooMapStats stats = new CuckooMapStats(map);
+        assertEquals(0, stats.getTable1HitRatio(), 0);
+        for (int i = 0; i < 40; i++) {
+            map.put(i, i);
+        }
+        stats.reset();
+        for (int i = 0; i < 100; i++) {
+            map.get(i);
+            map.containsKey(i);
+        }
+        assertEquals(120, stats.getMisses());
+        assertEquals(80, stats.getTable1Hits() + stats.getTable2Hits() + stats.getOtherHits());
+    }
+
+    private static void checkHits(CuckooMapStats stats, long table1, long table2, long other, long misses) {
+        assertEquals(table1, stats.getTable1Hits());
+        assertEquals(table2, stats.getTable2Hits());
+        assertEquals(other, stats.getOtherHits());
+        assertEquals(misses, stats.getMisses());
+    }
+
+    /**
+     * A full cache evicts one entry for every new key it takes.
+     */
+    @Test
+    public void testEvictionsInCacheMode() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(1024, CuckooMap.BUCKET_SLOTS);
+        CuckooMapStats stats = new CuckooMapStats(map);
+        map.setCacheMode(true);
+        for (int i = 0; i < 100000; i++) {
+            map.put(i, i);
+        }
+        assertEquals(100000 - map.size(), stats.getEvictions());
+        assertEquals(0, stats.getRehashCount());
+        assertTrue(stats.getEvictions() > 0);
+    }
+
+    @Test
+    public void testNoEvictionsWhenGrowing() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(16);
+        CuckooMapStats stats = new CuckooMapStats(map);
+        for (int i = 0; i < 10000; i++) {
+            map.put(i, i);
+        }
+        assertEquals(0, stats.getEvictions());
+    }
+
+    @Test
+    public void testRegister() throws JMException {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(16);
+        CuckooMapStats stats = new CuckooMapStats(map);
+        for (int i = 0; i < 10; i++) {
+            map.put(i, i);
+        }
+        map.get(100);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = stats.register("stats test");
+        try {
+            assertTrue(server.isRegistered(name));
+            assertEquals("Stats", name.getKeyProperty("type"));
+            assertEquals(10, server.getAttribute(name, "Size"));
+            assertEquals(1L, server.getAttribute(name, "Misses"));
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, stats.getMisses());
+        } finally {
+            server.unregisterMBean(name);
+        }
+        assertFalse(server.isRegistered(name));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullMap() {
+        new CuckooMapStats(null);
+    }
+}
@@ -0,0 +1,906 @@
+import static org.junit.Assert.*;
+
+import java.util.AbstractMap.SimpleEntry;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+/**
+ * Single threaded behaviour of CuckooMap, checked against HashMap as a
+ * reference model.
+ */
+public class CuckooMapTest {
+
+    /*
+     * Small enough that an insert recursing once per rehash overflows it.
+     */
+    private static final int SMALL_STACK = 256 * 1024;
+
+    /**
+     * Apply a random mix of puts and removes to the map and to a HashMap,
+     * checking every return value, then compare the two.
+     */
+    private static void checkAgainstHashMap(CuckooMap<Integer, Integer> map, long seed, int operations, int keys) {
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random rand = new Random(seed);
+        for (int i = 0; i < operations; i++) {
+            int key = rand.nextInt(keys);
+            if (rand.nextInt(3) == 0) {
+                assertEquals("remove " + key, expected.remove(key), map.remove(key));
+            } else {
+                assertEquals("put " + key, expected.put(key, i), map.put(key, i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+    }
+
+    /**
+     * Run the work on a thread with a SMALL_STACK stack, rethrowing
+     * whatever it throws.
+     */
+    private static void runWithSmallStack(final Runnable work) throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        Thread thread = new Thread(null, new Runnable() {
+            public void run() {
+                try {
+                    work.run();
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        }, "small-stack", SMALL_STACK);
+        thread.start();
+        thread.join();
+        if (failure.get() instanceof Error) {
+            throw (Error) failure.get();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    /**
+     * With one slot per bucket and two kicks allowed, inserts fail all the
+     * time, including while an incremental rehash is draining. Rehashing
+     * must not nest inside the drain, or the stack grows with every
+     * failure.
+     */
+    @Test
+    public void testIncrementalRehashWithShortKickChainsKeepsStackShallow() throws Exception {
+        for (int seed = 0; seed < 20; seed++) {
+            final long workload = seed;
+            runWithSmallStack(new Runnable() {
+                public void run() {
+                    CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4, 1);
+                    map.setIncrementalRehash(true);
+                    map.setMaxKicks(2);
+                    map.setAutoShrink(true);
+                    checkAgainstHashMap(map, workload, 50000, 20000);
+                }
+            });
+        }
+    }
+
+    /**
+     * Every kick strategy, with short and default kick limits, keeps the
+     * map equal to the reference while inserts fail and fall back to the
+     * stash and to rehashing. Run on a small stack, as the kick loop and
+     * the rehashes it triggers must not recurse.
+     */
+    @Test
+    public void testKickStrategiesMatchHashMap() throws Exception {
+        for (final CuckooMap.KickStrategy strategy : CuckooMap.KickStrategy.values()) {
+            for (final int slotsPerBucket : new int[] {1, CuckooMap.BUCKET_SLOTS}) {
+                for (final int maxKicks : new int[] {1, 2, 128}) {
+                    runWithSmallStack(new Runnable() {
+                        public void run() {
+                            CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(2, slotsPerBucket);
+                            map.setKickStrategy(strategy);
+                            map.setMaxKicks(maxKicks);
+                            checkAgainstHashMap(map, maxKicks, 30000, 10000);
+                        }
+                    });
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxKicksMustBePositive() {
+        new CuckooMap<Integer, Integer>(4).setMaxKicks(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullKickStrategy() {
+        new CuckooMap<Integer, Integer>(4).setKickStrategy(null);
+    }
+
+    /**
+     * A bulk putAll into an empty map may place the entries in parallel,
+     * which must account for every entry exactly once.
+     */
+    @Test
+    public void testParallelPutAllMatchesSource() {
+        Map<Integer, Integer> source = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            source.put(i * 7, i);
+        }
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4);
+        map.setParallelRehash(ForkJoinPool.commonPool());
+        map.putAll(source);
+        assertEquals(source.size(), map.size());
+        assertEquals(source, map);
+    }
+
+    /**
+     * A cache evicts while a bulk putAll fills it, so its size must count
+     * what it kept, not what it was given.
+     */
+    @Test
+    public void testPutAllIntoCacheCountsOnlyKeptEntries() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(1000);
+        map.setCacheMode(true);
+        map.setParallelRehash(ForkJoinPool.commonPool());
+        Map<Integer, Integer> source = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            source.put(i, -i);
+        }
+        map.putAll(source);
+        int iterated = 0;
+        for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+            assertEquals(Integer.valueOf(-entry.getKey()), entry.getValue());
+            iterated++;
+        }
+        assertEquals(iterated, map.size());
+        assertTrue(map.size() < source.size());
+    }
+
+    /**
+     * @return an incremental map in the middle of a rehash, holding the
+     * keys 0 to n - 1 mapped to their negation, copied into expected
+     */
+    private static CuckooMap<Integer, Integer> rehashingMap(Map<Integer, Integer> expected) {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(64);
+        map.setIncrementalRehash(true);
+        for (int i = 0; !map.isRehashing() || i < 1000; i++) {
+            map.put(i, -i);
+            expected.put(i, -i);
+        }
+        assertTrue(map.isRehashing());
+        return map;
+    }
+
+    /**
+     * Iterating, forEach and containsValue walk both generations of an
+     * incremental rehash rather than finishing it first.
+     */
+    @Test
+    public void testWalksDoNotFinishIncrementalRehash() {
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        CuckooMap<Integer, Integer> map = rehashingMap(expected);
+        assertEquals(expected.keySet(), new HashSet<Integer>(map.keySet()));
+        assertEquals(expected, new HashMap<Integer, Integer>(map));
+        final Map<Integer, Integer> visited = new HashMap<Integer, Integer>();
+        map.forEach(new BiConsumer<Integer, Integer>() {
+            public void accept(Integer key, Integer value) {
+                assertNull("visited twice", visited.put(key, value));
+            }
+        });
+        assertEquals(expected, visited);
+        assertTrue(map.containsValue(0));
+        assertTrue(map.containsValue(-(expected.size() - 1)));
+        assertFalse(map.containsValue(1));
+        assertTrue(map.isRehashing());
+    }
+
+    /**
+     * Lookups made during a walk would normally move old entries into the
+     * new tables, possibly behind the walk. Each entry must still be seen
+     * exactly once, and migration must resume once the walk ends.
+     */
+    @Test
+    public void testLookupsDuringIterationSeeEveryEntryOnce() {
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        CuckooMap<Integer, Integer> map = rehashingMap(expected);
+        Set<Integer> seen = new HashSet<Integer>();
+        for (Integer key : map.keySet()) {
+            assertTrue("seen twice " + key, seen.add(key));
+            assertEquals(Integer.valueOf(-key), map.get(key));
+            map.put(key, -key);
+        }
+        assertEquals(expected.keySet(), seen);
+        for (int i = 0; map.isRehashing(); i++) {
+            assertTrue("migration never resumed", i < expected.size() * 2);
+            map.get(i);
+        }
+        assertEquals(expected, map);
+    }
+
+    /**
+     * Removing through the iterator mid-rehash keeps the walk going over
+     * both generations.
+     */
+    @Test
+    public void testIteratorRemoveDuringIncrementalRehash() {
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        CuckooMap<Integer, Integer> map = rehashingMap(expected);
+        int seen = 0;
+        for (Iterator<Map.Entry<Integer, Integer>> iter = map.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<Integer, Integer> entry = iter.next();
+            seen++;
+            map.get(entry.getKey());
+            if (entry.getKey() % 2 == 0) {
+                iter.remove();
+                expected.remove(entry.getKey());
+            }
+        }
+        assertEquals(seen, expected.size() * 2, 1);
+        assertEquals(expected, map);
+    }
+
+    /**
+     * Both hash families keep the map equal to the reference, on one slot
+     * and on bucketized tables.
+     */
+    @Test
+    public void testHashFamiliesMatchHashMap() {
+        CuckooHashFunction[] families = {new MurmurMixHash(), new MultiplyShiftHash()};
+        for (CuckooHashFunction family : families) {
+            for (int slotsPerBucket : new int[] {1, CuckooMap.BUCKET_SLOTS}) {
+                checkAgainstHashMap(new CuckooMap<Integer, Integer>(2, slotsPerBucket, family), 7, 30000, 10000);
+            }
+        }
+    }
+
+    /**
+     * Consecutive keys are the commonest structured input. The default
+     * hash family must spread them well enough that the tables reach
+     * their maximum load before growing.
+     */
+    @Test
+    public void testDefaultHashSpreadsConsecutiveKeys() {
+        for (int run = 0; run < 200; run++) {
+            CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(1024, CuckooMap.BUCKET_SLOTS);
+            for (int i = 0; i < 1740; i++) {
+                map.put(i, i);
+            }
+            double load = (map.getTableOccupancy(1) + map.getTableOccupancy(2)) / 2;
+            assertTrue("load " + load, load > .84);
+        }
+    }
+
+    @Test
+    public void testHashIndexInRange() {
+        Random rand = new Random(3);
+        CuckooHashFunction[] families = {new MurmurMixHash(), new MultiplyShiftHash()};
+        for (CuckooHashFunction family : families) {
+            for (int i = 0; i < 10000; i++) {
+                int bits = rand.nextInt(31);
+                int index = family.index(rand.nextLong(), rand.nextLong() | 1, bits);
+                assertTrue(index >= 0 && index < (1L << bits));
+            }
+        }
+    }
+
+    /**
+     * Keys with equal hashCodes share both their buckets, so with one slot
+     * a bucket only two fit in the tables and the rest must sit in the
+     * stash, where every operation still has to find them.
+     */
+    @Test
+    public void testStashHoldsCollidingKeys() {
+        CuckooMap<Collider, Integer> map = new CuckooMap<Collider, Integer>(64);
+        Map<Collider, Integer> expected = new HashMap<Collider, Integer>();
+        for (int i = 0; i < 6; i++) {
+            assertNull(map.put(new Collider(i), i));
+            expected.put(new Collider(i), i);
+        }
+        assertEquals(expected, map);
+        assertEquals(Integer.valueOf(5), map.put(new Collider(5), 50));
+        assertEquals(Integer.valueOf(50), map.get(new Collider(5)));
+        assertEquals(Integer.valueOf(2), map.remove(new Collider(2)));
+        assertFalse(map.containsKey(new Collider(2)));
+        assertEquals(5, map.size());
+        int seen = 0;
+        for (Collider key : map.keySet()) {
+            assertTrue(map.containsKey(key));
+            seen++;
+        }
+        assertEquals(5, seen);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullHashFunction() {
+        new CuckooMap<Integer, Integer>(4, 1, null);
+    }
+
+    /**
+     * A key whose hashCode is the same for every instance.
+     */
+    private static class Collider {
+        private final int id;
+
+        Collider(int id) {
+            this.id = id;
+        }
+
+        public int hashCode() {
+            return 42;
+        }
+
+        public boolean equals(Object o) {
+            return o instanceof Collider && ((Collider) o).id == id;
+        }
+    }
+
+    /**
+     * The bucketized layout behaves as a map like the one slot layout,
+     * through inserts, displacements and removes within a bucket.
+     */
+    @Test
+    public void testBucketizedLayoutMatchesHashMap() {
+        for (int seed = 0; seed < 5; seed++) {
+            checkAgainstHashMap(new CuckooMap<Integer, Integer>(2, CuckooMap.BUCKET_SLOTS), seed, 50000, 20000);
+        }
+    }
+
+    /**
+     * Removing through the iterator clears slots in the middle of
+     * buckets, which later inserts into the bucket must reuse.
+     */
+    @Test
+    public void testBucketizedIteratorRemove() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(64, CuckooMap.BUCKET_SLOTS);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, i);
+            expected.put(i, i);
+        }
+        for (Iterator<Integer> iter = map.keySet().iterator(); iter.hasNext();) {
+            int key = iter.next();
+            if (key % 3 != 0) {
+                iter.remove();
+                expected.remove(key);
+            }
+        }
+        assertEquals(expected, map);
+        for (int i = 1000; i < 2000; i++) {
+            assertNull(map.put(i, i));
+            expected.put(i, i);
+        }
+        assertEquals(expected, map);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlotsPerBucketMustBePositive() {
+        new CuckooMap<Integer, Integer>(4, 0);
+    }
+
+    /**
+     * A cache takes any number of puts without growing. Whatever it kept
+     * must still read back correctly, and size must count exactly that.
+     */
+    @Test
+    public void testCacheStaysBounded() {
+        for (int slotsPerBucket : new int[] {1, CuckooMap.BUCKET_SLOTS}) {
+            CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(1024, slotsPerBucket);
+            map.setCacheMode(true);
+            for (int i = 0; i < 100000; i++) {
+                map.put(i, -i);
+                assertTrue(map.size() <= 2048);
+            }
+            assertTrue(map.getTableOccupancy(1) <= 1 && map.getTableOccupancy(2) <= 1);
+            Set<Integer> kept = new HashSet<Integer>();
+            for (Map.Entry<Integer, Integer> entry : map.entrySet()) {
+                assertEquals(Integer.valueOf(-entry.getKey()), entry.getValue());
+                kept.add(entry.getKey());
+            }
+            assertEquals(kept.size(), map.size());
+            assertTrue(map.size() > 1000);
+            for (int i = 0; i < 100000; i++) {
+                assertEquals(kept.contains(i), map.containsKey(i));
+            }
+        }
+    }
+
+    /**
+     * Keys read since they were last passed over are not evicted while
+     * keys used only once are available, so a small hot set survives a
+     * long stream of keys each used once.
+     */
+    @Test
+    public void testCacheKeepsHotKeys() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(1024, CuckooMap.BUCKET_SLOTS);
+        map.setCacheMode(true);
+        for (int hot = 0; hot < 100; hot++) {
+            map.put(hot, hot);
+        }
+        for (int i = 100; i < 100000; i++) {
+            map.put(i, i);
+            map.get(i % 100);
+        }
+        int hotKept = 0;
+        for (int hot = 0; hot < 100; hot++) {
+            if (map.containsKey(hot)) {
+                hotKept++;
+            }
+        }
+        int coldKept = 0;
+        for (int cold = 50000; cold < 50100; cold++) {
+            if (map.containsKey(cold)) {
+                coldKept++;
+            }
+        }
+        assertTrue("hot keys kept " + hotKept, hotKept >= 90);
+        assertEquals(0, coldKept);
+    }
+
+    /**
+     * A full cache makes room in the new key's own buckets, so its puts
+     * place keys directly instead of running displacement chains that
+     * fail and evict anyway.
+     */
+    @Test
+    public void testFullCachePutsRarelyKick() {
+        final int[] failures = new int[1];
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(1024, CuckooMap.BUCKET_SLOTS);
+        map.setRecorder(new CuckooMapRecorder() {
+            public void kickFailure() {
+                failures[0]++;
+            }
+        });
+        map.setCacheMode(true);
+        for (int i = 0; i < 100000; i++) {
+            map.put(i, i);
+        }
+        assertTrue("kick failures " + failures[0], failures[0] < 100);
+    }
+
+    /**
+     * Cache mode fixes the table size: nothing that would resize the
+     * tables does so, and clear keeps the cache's size.
+     */
+    @Test
+    public void testCacheKeepsItsSize() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(1024);
+        map.setCacheMode(true);
+        for (int i = 0; i < 10000; i++) {
+            map.put(i, i);
+        }
+        int size = map.size();
+        map.ensureCapacity(100000);
+        map.trimToSize();
+        assertEquals(size, map.size());
+        map.clear();
+        for (int i = 0; i < 400; i++) {
+            map.put(i, i);
+        }
+        assertEquals(400, map.size());
+        double occupancy = map.getTableOccupancy(1) + map.getTableOccupancy(2);
+        assertEquals(400 / 1024.0, occupancy, 1e-9);
+    }
+
+    /**
+     * Growing past PARALLEL_MIN_SLOTS splits the rebuild across the pool.
+     * The map must come out of every such rebuild equal to the reference,
+     * on both layouts.
+     */
+    @Test
+    public void testParallelRehashMatchesHashMap() {
+        for (int slotsPerBucket : new int[] {1, CuckooMap.BUCKET_SLOTS}) {
+            CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4, slotsPerBucket);
+            map.setParallelRehash(ForkJoinPool.commonPool());
+            checkAgainstHashMap(map, slotsPerBucket, 600000, 400000);
+        }
+    }
+
+    /**
+     * With a pool of its own the rebuild really runs on other threads, and
+     * turning the option back off rehashes serially again.
+     */
+    @Test
+    public void testParallelRehashOnOwnPool() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4);
+            map.setParallelRehash(pool);
+            Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+            for (int i = 0; i < 300000; i++) {
+                map.put(i * 31, i);
+                expected.put(i * 31, i);
+            }
+            assertEquals(expected, map);
+            map.setParallelRehash(null);
+            for (int i = 300000; i < 600000; i++) {
+                map.put(i * 31, i);
+                expected.put(i * 31, i);
+            }
+            assertEquals(expected, map);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return the fraction of the slots of both tables in use
+     */
+    private static double load(CuckooMap<?, ?> map) {
+        return (map.getTableOccupancy(1) + map.getTableOccupancy(2)) / 2;
+    }
+
+    /**
+     * Drive an incremental rehash or shrink to the end with lookups.
+     */
+    private static void drain(CuckooMap<Integer, Integer> map) {
+        for (int i = 0; map.isRehashing(); i++) {
+            map.get(i);
+        }
+    }
+
+    /**
+     * Removing most of the entries with automatic shrinking on leaves the
+     * tables between a fifth and two fifths full, and the map intact.
+     */
+    @Test
+    public void testAutoShrinkAfterMassRemoval() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(16);
+        map.setAutoShrink(true);
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            map.put(i, i);
+            expected.put(i, i);
+        }
+        for (int i = 0; i < 99000; i++) {
+            assertEquals(expected.remove(i), map.remove(i));
+        }
+        drain(map);
+        assertEquals(expected, map);
+        assertTrue("load " + load(map), load(map) >= .2 && load(map) <= .4);
+    }
+
+    /**
+     * Without automatic shrinking the tables keep their size until
+     * trimToSize, which packs them to just under the maximum load.
+     */
+    @Test
+    public void testTrimToSize() {
+        for (int slotsPerBucket : new int[] {1, CuckooMap.BUCKET_SLOTS}) {
+            CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(16, slotsPerBucket);
+            Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+            for (int i = 0; i < 100000; i++) {
+                map.put(i, i);
+                expected.put(i, i);
+            }
+            for (int i = 0; i < 99000; i++) {
+                map.remove(i);
+                expected.remove(i);
+            }
+            assertTrue(load(map) < .02);
+            map.trimToSize();
+            assertEquals(expected, map);
+            assertTrue("load " + load(map), load(map) > .3);
+        }
+    }
+
+    /**
+     * clear goes back to the tables the map was created with, rather
+     * than keeping the largest they ever grew to.
+     */
+    @Test
+    public void testClearResetsToInitialSize() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(16);
+        for (int i = 0; i < 100000; i++) {
+            map.put(i, i);
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        for (int i = 0; i < 8; i++) {
+            map.put(i, i);
+        }
+        assertEquals(8 / 32.0, load(map), 1e-9);
+    }
+
+    /**
+     * Shrinking never goes below the size the map was created with.
+     */
+    @Test
+    public void testAutoShrinkKeepsInitialSize() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(1024);
+        map.setAutoShrink(true);
+        for (int i = 0; i < 10000; i++) {
+            map.put(i, i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            map.remove(i);
+        }
+        drain(map);
+        assertTrue(map.isEmpty());
+        for (int i = 0; i < 500; i++) {
+            map.put(i, i);
+        }
+        assertEquals(500 / 2048.0, load(map), 1e-9);
+    }
+
+    /**
+     * Apply random batches of puts through putAll(K[], V[]) and of lookups
+     * through getAll to the map and to a HashMap. The keys come from a
+     * small range, so batches repeat keys, and the last value for a key
+     * must win as with put.
+     */
+    private static void checkBatchesAgainstHashMap(CuckooMap<Integer, Integer> map, Map<Integer, Integer> expected,
+            long seed, int batches, int batchSize, int keys) {
+        Random rand = new Random(seed);
+        for (int b = 0; b < batches; b++) {
+            Integer[] putKeys = new Integer[batchSize];
+            Integer[] values = new Integer[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                putKeys[i] = rand.nextInt(keys);
+                values[i] = rand.nextInt();
+                expected.put(putKeys[i], values[i]);
+            }
+            map.putAll(putKeys, values);
+            assertEquals(expected.size(), map.size());
+            Integer[] getKeys = new Integer[batchSize];
+            for (int i = 0; i < batchSize; i++) {
+                getKeys[i] = rand.nextInt(keys * 2);
+            }
+            Integer[] out = new Integer[batchSize + 1];
+            out[batchSize] = -1;
+            map.getAll(getKeys, out);
+            for (int i = 0; i < batchSize; i++) {
+                assertEquals("get " + getKeys[i], expected.get(getKeys[i]), out[i]);
+            }
+            assertEquals("out past the keys untouched", Integer.valueOf(-1), out[batchSize]);
+        }
+        assertEquals(expected, map);
+    }
+
+    /**
+     * Batches smaller than, equal to and larger than the hashing window,
+     * in both layouts, into maps that start small and grow as they fill.
+     */
+    @Test
+    public void testBatchesMatchHashMap() {
+        int[] batchSizes = {1, 63, 64, 65, 1000};
+        for (int slots = 1; slots <= CuckooMap.BUCKET_SLOTS; slots *= CuckooMap.BUCKET_SLOTS) {
+            for (int batchSize : batchSizes) {
+                CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4, slots);
+                checkBatchesAgainstHashMap(map, new HashMap<Integer, Integer>(), batchSize, 30, batchSize, 5000);
+            }
+        }
+    }
+
+    /**
+     * Keys hashed at the start of a batch go stale when an insert in the
+     * middle of it grows the tables. The rest of the batch must be hashed
+     * again, or keys already in the map are looked for in the wrong
+     * buckets and put a second time.
+     */
+    @Test
+    public void testPutAllGrowsMidBatch() {
+        final int[] rehashes = new int[1];
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(8);
+        map.setRecorder(new CuckooMapRecorder() {
+            public void rehash(long nanos) {
+                rehashes[0]++;
+            }
+        });
+        for (int i = 0; i < 10; i++) {
+            map.put(i, i);
+        }
+        assertEquals(0, rehashes[0]);
+        // forty new keys grow the tables, then the first ten are updated, all in one window
+        Integer[] keys = new Integer[50];
+        Integer[] values = new Integer[50];
+        for (int i = 0; i < 40; i++) {
+            keys[i] = 100 + i;
+            values[i] = i;
+        }
+        for (int i = 0; i < 10; i++) {
+            keys[40 + i] = i;
+            values[40 + i] = -i;
+        }
+        map.putAll(keys, values);
+        assertTrue(rehashes[0] > 0);
+        assertEquals(50, map.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(Integer.valueOf(-i), map.get(i));
+        }
+        int iterated = 0;
+        for (Integer key : map.keySet()) {
+            iterated++;
+        }
+        assertEquals(50, iterated);
+    }
+
+    /**
+     * Batches into an incremental map whose old generation is still
+     * draining must find and update keys in either generation.
+     */
+    @Test
+    public void testBatchesDuringIncrementalRehash() {
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        CuckooMap<Integer, Integer> map = rehashingMap(expected);
+        Integer[] keys = new Integer[expected.size()];
+        Integer[] values = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+            values[i] = i * 3;
+            expected.put(i, i * 3);
+        }
+        Integer[] out = new Integer[3];
+        map.getAll(new Integer[] {0, keys.length - 1, -1}, out);
+        assertEquals(Integer.valueOf(0), out[0]);
+        assertEquals(Integer.valueOf(1 - keys.length), out[1]);
+        assertNull(out[2]);
+        assertTrue(map.isRehashing());
+        map.putAll(keys, values);
+        assertEquals(expected, map);
+        checkBatchesAgainstHashMap(map, expected, 3, 20, 200, keys.length * 2);
+    }
+
+    @Test
+    public void testPutAllDuplicateKeysLastWins() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4);
+        map.put(1, 0);
+        map.putAll(new Integer[] {1, 2, 1, 2, 3}, new Integer[] {10, 20, 11, 21, 30});
+        assertEquals(3, map.size());
+        assertEquals(Integer.valueOf(11), map.get(1));
+        assertEquals(Integer.valueOf(21), map.get(2));
+        assertEquals(Integer.valueOf(30), map.get(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutAllNullKey() {
+        new CuckooMap<Integer, Integer>(4).putAll(new Integer[] {1, null}, new Integer[] {1, 2});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutAllNullValue() {
+        new CuckooMap<Integer, Integer>(4).putAll(new Integer[] {1, 2}, new Integer[] {1, null});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutAllLengthsDiffer() {
+        new CuckooMap<Integer, Integer>(4).putAll(new Integer[] {1, 2}, new Integer[] {1});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetAllNullKey() {
+        new CuckooMap<Integer, Integer>(4).getAll(new Integer[] {1, null}, new Integer[2]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGetAllOutTooShort() {
+        new CuckooMap<Integer, Integer>(4).getAll(new Integer[] {1, 2}, new Integer[1]);
+    }
+
+    /**
+     * The copy holds the source's entries in tables already sized for
+     * them: putting them all again, or asking for room for them, rehashes
+     * nothing. Changing the copy leaves the source alone.
+     */
+    @Test
+    public void testCopyConstructor() {
+        Map<Integer, Integer> source = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            source.put(i * 7, i);
+        }
+        CuckooMap<Integer, Integer> copy = new CuckooMap<Integer, Integer>(source);
+        CuckooMapStats stats = new CuckooMapStats(copy);
+        assertEquals(source, copy);
+        copy.ensureCapacity(source.size());
+        for (Map.Entry<Integer, Integer> entry : source.entrySet()) {
+            copy.put(entry.getKey(), entry.getValue());
+        }
+        assertEquals(0, stats.getRehashCount());
+        copy.put(-1, -1);
+        copy.remove(0);
+        assertEquals(1000, source.size());
+        assertEquals(Integer.valueOf(0), source.get(0));
+        assertFalse(source.containsKey(-1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCopyConstructorNull() {
+        new CuckooMap<Integer, Integer>((Map<Integer, Integer>) null);
+    }
+
+    /**
+     * putAll sizes the tables once for the whole source instead of
+     * doubling its way up.
+     */
+    @Test
+    public void testPutAllRehashesOnce() {
+        Map<Integer, Integer> source = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            source.put(i, i);
+        }
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(0);
+        CuckooMapStats stats = new CuckooMapStats(map);
+        map.putAll(source);
+        assertEquals(1, stats.getRehashCount());
+        assertEquals(source, map);
+    }
+
+    @Test
+    public void testPutAllStreamDuplicateKeysLastWins() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4);
+        map.put(1, 0);
+        map.putAll(Stream.of(new SimpleEntry<Integer, Integer>(1, 10), new SimpleEntry<Integer, Integer>(2, 20),
+                new SimpleEntry<Integer, Integer>(1, 11), new SimpleEntry<Integer, Integer>(3, 30),
+                new SimpleEntry<Integer, Integer>(2, 21)));
+        assertEquals(3, map.size());
+        assertEquals(Integer.valueOf(11), map.get(1));
+        assertEquals(Integer.valueOf(21), map.get(2));
+        assertEquals(Integer.valueOf(30), map.get(3));
+    }
+
+    /**
+     * A parallel stream is gathered in encounter order, so the later of
+     * two entries for a key still wins.
+     */
+    @Test
+    public void testPutAllParallelStream() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4);
+        map.putAll(IntStream.range(0, 200000).parallel()
+                .mapToObj(i -> new SimpleEntry<Integer, Integer>(i % 100000, i)));
+        assertEquals(100000, map.size());
+        for (int i = 0; i < 100000; i++) {
+            assertEquals(Integer.valueOf(i + 100000), map.get(i));
+        }
+    }
+
+    @Test
+    public void testPutAllEmptySources() {
+        CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(4);
+        map.put(1, 1);
+        CuckooMapStats stats = new CuckooMapStats(map);
+        map.putAll(Stream.<Map.Entry<Integer, Integer>>empty());
+        map.putAll(new HashMap<Integer, Integer>());
+        assertEquals(1, map.size());
+        assertEquals(Integer.valueOf(1), map.get(1));
+        assertEquals(0, stats.getRehashCount());
+        assertTrue(new CuckooMap<Integer, Integer>(new HashMap<Integer, Integer>()).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutAllNullStream() {
+        new CuckooMap<Integer, Integer>(4).putAll((Stream<Map.Entry<Integer, Integer>>) null);
+    }
+
+    /**
+     * After ensureCapacity(n) the first n inserts fit without growing,
+     * for single slot tables, which it sizes to stay half full, as well
+     * as bucketized ones. 15237 keys fill the bucketized tables to their
+     * .93 limit exactly.
+     */
+    @Test
+    public void testEnsureCapacityThenNoGrow() {
+        int[][] cases = {{1, 1000}, {1, 5000}, {CuckooMap.BUCKET_SLOTS, 1000}, {CuckooMap.BUCKET_SLOTS, 15237}};
+        for (int[] c : cases) {
+            CuckooMap<Integer, Integer> map = new CuckooMap<Integer, Integer>(0, c[0]);
+            CuckooMapStats stats = new CuckooMapStats(map);
+            map.ensureCapacity(c[1]);
+            assertEquals(1, stats.getRehashCount());
+            map.ensureCapacity(c[1]);
+            assertEquals(1, stats.getRehashCount());
+            for (int i = 0; i < c[1]; i++) {
+                map.put(i * 7919, i);
+            }
+            assertEquals("slots " + c[0] + ", size " + c[1], 1, stats.getRehashCount());
+            assertEquals(c[1], map.size());
+        }
+    }
+}
@@ -0,0 +1,329 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A cuckoo hash map from primitive int keys to object values.
+ *
+ * Uses the bucketized two table displacement scheme of CuckooMap, with
+ * CuckooMap.BUCKET_SLOTS slots per hash index. Each table is a flat int
+ * array of keys with a parallel array of values, so keys are never boxed,
+ * and a probe compares the four keys of a bucket, 16 contiguous bytes,
+ * before it reads any value. Slots are marked empty with the reserved key
+ * EMPTY_KEY, which therefore cannot be stored in the map. Null values are
+ * not allowed.
+ */
+public class IntObjectCuckooMap<V> {
+
+	/**
+	 * Reserved key marking an empty slot.
+	 */
+	public static final int EMPTY_KEY = Integer.MIN_VALUE;
+
+	private static final int SLOTS = CuckooMap.BUCKET_SLOTS;
+	/*
+	 * The load at which the bucketized CuckooMap grows too.
+	 */
+	private static final double MAX_LOAD_FACTOR = .93;
+	private static final int MAX_KICKS = 128;
+	private final CuckooHashFunction hashFunction;
+	private long seed1;
+	private long seed2;
+	private int bits;
+	private Random rand = new Random();
+	private int size;
+	/*
+	 * Hash indices are the index of the first slot of a bucket.
+	 */
+	private int[] keys1;
+	private Object[] values1;
+	private int[] keys2;
+	private Object[] values2;
+	/*
+	 * The entry left over when tryInsert fails, for rebuild to place.
+	 */
+	private int homelessKey;
+	private Object homelessValue;
+
+	/**
+	 * @param startSize the number of slots to start with in each table
+	 */
+	public IntObjectCuckooMap(int startSize) {
+		this(startSize, new MurmurMixHash());
+	}
+
+	/**
+	 * @param startSize the number of slots to start with in each table
+	 * @param hashFunction the hash family used to index both tables
+	 */
+	public IntObjectCuckooMap(int startSize, CuckooHashFunction hashFunction) {
+		if (startSize < 0 || hashFunction == null) {
+			throw new IllegalArgumentException();
+		}
+		this.hashFunction = hashFunction;
+		int buckets = Math.max(1, (startSize + SLOTS - 1) / SLOTS);
+		allocate(32 - Integer.numberOfLeadingZeros(buckets - 1));
+	}
+
+	/**
+	 * Replace the tables with empty ones of 2^bits buckets and draw new
+	 * seeds for them.
+	 */
+	private void allocate(int bits) {
+		this.bits = bits;
+		keys1 = new int[SLOTS << bits];
+		keys2 = new int[SLOTS << bits];
+		values1 = new Object[SLOTS << bits];
+		values2 = new Object[SLOTS << bits];
+		Arrays.fill(keys1, EMPTY_KEY);
+		Arrays.fill(keys2, EMPTY_KEY);
+		seed1 = rand.nextLong() | 1L;
+		seed2 = rand.nextLong() | 1L;
+	}
+
+	private int getHashIndex1(int key) {
+		return hashFunction.index(key, seed1, bits) * SLOTS;
+	}
+
+	private int getHashIndex2(int key) {
+		return hashFunction.index(key, seed2, bits) * SLOTS;
+	}
+
+	/**
+	 * Passing EMPTY_KEY finds an empty slot.
+	 *
+	 * @return the slot of the key within the bucket starting at index, or -1
+	 */
+	private int findKey(int[] keys, int index, int key) {
+		for (int slot = index; slot < index + SLOTS; slot++) {
+			if (keys[slot] == key) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Associate the value with the key, replacing any previous value.
+	 *
+	 * Throw an IllegalArgumentException if the key is EMPTY_KEY or the
+	 * value is null.
+	 *
+	 * @return the previous value for the key, or null if there was none
+	 */
+	public V put(int key, V value) {
+		if (key == EMPTY_KEY || value == null) {
+			throw new IllegalArgumentException();
+		}
+		V oldValue;
+		int slot = findKey(keys1, getHashIndex1(key), key);
+		if (slot >= 0) {
+			oldValue = (V) values1[slot];
+			values1[slot] = value;
+			return oldValue;
+		}
+		slot = findKey(keys2, getHashIndex2(key), key);
+		if (slot >= 0) {
+			oldValue = (V) values2[slot];
+			values2[slot] = value;
+			return oldValue;
+		}
+		if ((double) (size + 1) / (keys1.length * 2) > MAX_LOAD_FACTOR) {
+			rebuild(bits + 1, key, value);
+		} else if (!tryInsert(key, value)) {
+			rebuild(bits + 1, homelessKey, homelessValue);
+		}
+		size++;
+		return null;
+	}
+
+	/**
+	 * Place a key known to be absent in an empty slot of either bucket,
+	 * displacing a random resident of the two when both are full, for up
+	 * to MAX_KICKS residents.
+	 *
+	 * @return false if the kick limit was reached, leaving the entry the
+	 * loop was carrying, which need not be the one passed in, in
+	 * homelessKey and homelessValue
+	 */
+	private boolean tryInsert(int key, Object value) {
+		int lastSlot = -1;
+		boolean lastInTable2 = false;
+		for (int kicks = 0; ; kicks++) {
+			int index1 = getHashIndex1(key);
+			int slot = findKey(keys1, index1, EMPTY_KEY);
+			if (slot >= 0) {
+				keys1[slot] = key;
+				values1[slot] = value;
+				return true;
+			}
+			int index2 = getHashIndex2(key);
+			slot = findKey(keys2, index2, EMPTY_KEY);
+			if (slot >= 0) {
+				keys2[slot] = key;
+				values2[slot] = value;
+				return true;
+			}
+			if (kicks == MAX_KICKS) {
+				homelessKey = key;
+				homelessValue = value;
+				return false;
+			}
+			boolean inTable2;
+			do {
+				int pick = rand.nextInt(SLOTS * 2);
+				inTable2 = pick >= SLOTS;
+				slot = inTable2 ? index2 + pick - SLOTS : index1 + pick;
+			} while (slot == lastSlot && inTable2 == lastInTable2);
+			int[] keys = inTable2 ? keys2 : keys1;
+			Object[] values = inTable2 ? values2 : values1;
+			int tempKey = keys[slot];
+			Object tempValue = values[slot];
+			keys[slot] = key;
+			values[slot] = value;
+			key = tempKey;
+			value = tempValue;
+			lastSlot = slot;
+			lastInTable2 = inTable2;
+		}
+	}
+
+	/**
+	 * Move every entry, and the given one, into tables of 2^newBits
+	 * buckets. If an insert fails even so the pass starts over with tables
+	 * twice as large, so a rebuild never triggers another one.
+	 */
+	private void rebuild(int newBits, int key, Object value) {
+		int[] fromKeys1 = keys1;
+		int[] fromKeys2 = keys2;
+		Object[] fromValues1 = values1;
+		Object[] fromValues2 = values2;
+		while (true) {
+			allocate(newBits);
+			if (reinsert(fromKeys1, fromValues1) && reinsert(fromKeys2, fromValues2)
+					&& tryInsert(key, value)) {
+				return;
+			}
+			newBits++;
+		}
+	}
+
+	/**
+	 * @return false as soon as an entry of the old table cannot be placed
+	 */
+	private boolean reinsert(int[] keys, Object[] values) {
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != EMPTY_KEY && !tryInsert(keys[i], values[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the value for the key, or null if the key is not in the map
+	 */
+	public V get(int key) {
+		if (key == EMPTY_KEY) {
+			return null;
+		}
+		int slot = findKey(keys1, getHashIndex1(key), key);
+		if (slot >= 0) {
+			return (V) values1[slot];
+		}
+		slot = findKey(keys2, getHashIndex2(key), key);
+		if (slot >= 0) {
+			return (V) values2[slot];
+		}
+		return null;
+	}
+
+	/**
+	 * @return true if the key is found, false otherwise.
+	 */
+	public boolean containsKey(int key) {
+		if (key == EMPTY_KEY) {
+			return false;
+		}
+		return findKey(keys1, getHashIndex1(key), key) >= 0
+				|| findKey(keys2, getHashIndex2(key), key) >= 0;
+	}
+
+	/**
+	 * @return true if some key maps to the value, false otherwise.
+	 */
+	public boolean containsValue(Object value) {
+		for (int i = 0; i < keys1.length; i++) {
+			if (keys1[i] != EMPTY_KEY && values1[i].equals(value)) {
+				return true;
+			}
+		}
+		for (int i = 0; i < keys2.length; i++) {
+			if (keys2[i] != EMPTY_KEY && values2[i].equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove the entry for the key.
+	 *
+	 * @return the value that was removed, or null if the key was not found
+	 */
+	public V remove(int key) {
+		if (key == EMPTY_KEY) {
+			return null;
+		}
+		int[] keys = keys1;
+		Object[] values = values1;
+		int slot = findKey(keys, getHashIndex1(key), key);
+		if (slot < 0) {
+			keys = keys2;
+			values = values2;
+			slot = findKey(keys, getHashIndex2(key), key);
+		}
+		if (slot < 0) {
+			return null;
+		}
+		V oldValue = (V) values[slot];
+		keys[slot] = EMPTY_KEY;
+		values[slot] = null;
+		size--;
+		return oldValue;
+	}
+
+	/**
+	 * Call the procedure once for every entry in the map.
+	 */
+	public void forEach(IntObjectProcedure<? super V> procedure) {
+		for (int i = 0; i < keys1.length; i++) {
+			if (keys1[i] != EMPTY_KEY) {
+				procedure.apply(keys1[i], (V) values1[i]);
+			}
+		}
+		for (int i = 0; i < keys2.length; i++) {
+			if (keys2[i] != EMPTY_KEY) {
+				procedure.apply(keys2[i], (V) values2[i]);
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Remove every entry, keeping the current table size.
+	 */
+	public void clear() {
+		Arrays.fill(keys1, EMPTY_KEY);
+		Arrays.fill(keys2, EMPTY_KEY);
+		Arrays.fill(values1, null);
+		Arrays.fill(values2, null);
+		size = 0;
+	}
+}
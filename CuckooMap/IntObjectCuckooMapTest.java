@@ -0,0 +1,125 @@
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * IntObjectCuckooMap checked against a HashMap of boxed keys.
+ */
+public class IntObjectCuckooMapTest {
+
+    /**
+     * Random puts, removes and lookups over a key range small enough to
+     * hit existing keys often, checking every return value.
+     */
+    @Test
+    public void testMatchesHashMap() {
+        for (int seed = 0; seed < 5; seed++) {
+            IntObjectCuckooMap<String> map = new IntObjectCuckooMap<String>(2);
+            Map<Integer, String> expected = new HashMap<Integer, String>();
+            Random rand = new Random(seed);
+            for (int i = 0; i < 50000; i++) {
+                int key = rand.nextInt(20000) - 10000;
+                switch (rand.nextInt(4)) {
+                case 0:
+                    assertEquals("remove " + key, expected.remove(key), map.remove(key));
+                    break;
+                case 1:
+                    assertEquals("get " + key, expected.get(key), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+                    break;
+                default:
+                    String value = "v" + i;
+                    assertEquals("put " + key, expected.put(key, value), map.put(key, value));
+                }
+                assertEquals(expected.size(), map.size());
+            }
+            final Map<Integer, String> visited = new HashMap<Integer, String>();
+            map.forEach(new IntObjectProcedure<String>() {
+                public void apply(int key, String value) {
+                    assertNull("visited twice", visited.put(key, value));
+                }
+            });
+            assertEquals(expected, visited);
+        }
+    }
+
+    @Test
+    public void testContainsValue() {
+        IntObjectCuckooMap<String> map = new IntObjectCuckooMap<String>(4);
+        map.put(1, "one");
+        map.put(2, "two");
+        assertTrue(map.containsValue("two"));
+        map.remove(2);
+        assertFalse(map.containsValue("two"));
+        assertFalse(map.containsValue(null));
+    }
+
+    @Test
+    public void testClear() {
+        IntObjectCuckooMap<String> map = new IntObjectCuckooMap<String>(4);
+        for (int i = 0; i < 1000; i++) {
+            map.put(i, "v");
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(5));
+        assertNull(map.put(5, "w"));
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * EMPTY_KEY marks free slots, so it can never be a key.
+     */
+    @Test
+    public void testEmptyKeyIsNeverFound() {
+        IntObjectCuckooMap<String> map = new IntObjectCuckooMap<String>(4);
+        assertNull(map.get(IntObjectCuckooMap.EMPTY_KEY));
+        assertFalse(map.containsKey(IntObjectCuckooMap.EMPTY_KEY));
+        assertNull(map.remove(IntObjectCuckooMap.EMPTY_KEY));
+        assertEquals(0, map.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutEmptyKey() {
+        new IntObjectCuckooMap<String>(4).put(IntObjectCuckooMap.EMPTY_KEY, "v");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutNullValue() {
+        new IntObjectCuckooMap<String>(4).put(1, null);
+    }
+
+    /**
+     * Both hash families hold a dense run of keys, including negative
+     * ones next to EMPTY_KEY.
+     */
+    @Test
+    public void testDenseKeysWithEachHashFunction() {
+        CuckooHashFunction[] functions = {new MurmurMixHash(), new MultiplyShiftHash()};
+        for (CuckooHashFunction function : functions) {
+            IntObjectCuckooMap<Integer> map = new IntObjectCuckooMap<Integer>(0, function);
+            for (int key = Integer.MIN_VALUE + 1; key < Integer.MIN_VALUE + 50000; key++) {
+                assertNull(map.put(key, key));
+            }
+            for (int key = -50000; key < 50000; key++) {
+                assertNull(map.put(key, key));
+            }
+            assertEquals(149999, map.size());
+            for (int key = -50000; key < 50000; key++) {
+                assertEquals(Integer.valueOf(key), map.get(key));
+            }
+            assertEquals(Integer.valueOf(Integer.MIN_VALUE + 1), map.remove(Integer.MIN_VALUE + 1));
+            assertNull(map.get(Integer.MIN_VALUE + 1));
+            assertNull(map.get(IntObjectCuckooMap.EMPTY_KEY));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullHashFunction() {
+        new IntObjectCuckooMap<String>(4, null);
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Callback used to walk the entries of an IntObjectCuckooMap without boxing
+ * the key.
+ */
+public interface IntObjectProcedure<V> {
+	
+	/**
+	 * Called once for every entry in the map.
+	 * 
+	 * @param key the key of the entry
+	 * @param value the value of the entry
+	 */
+	void apply(int key, V value);
+}
@@ -0,0 +1,338 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A cuckoo hash map from primitive long keys to primitive long values.
+ *
+ * Uses the bucketized two table displacement scheme of CuckooMap, with
+ * CuckooMap.BUCKET_SLOTS slots per hash index, but both tables are flat
+ * long arrays of interleaved key/value pairs so nothing is boxed on get,
+ * put or remove. A bucket's four pairs take 64 bytes, a single cache line,
+ * so a lookup costs at most two misses however full the map is. Slots are
+ * marked empty with the reserved key EMPTY_KEY, which therefore cannot be
+ * stored in the map.
+ */
+public class LongLongCuckooMap {
+
+	/**
+	 * Reserved key marking an empty slot.
+	 */
+	public static final long EMPTY_KEY = Long.MIN_VALUE;
+
+	private static final int SLOTS = CuckooMap.BUCKET_SLOTS;
+	/*
+	 * The load at which the bucketized CuckooMap grows too.
+	 */
+	private static final double MAX_LOAD_FACTOR = .93;
+	private static final int MAX_KICKS = 128;
+	private final CuckooHashFunction hashFunction;
+	private long seed1;
+	private long seed2;
+	private int bits;
+	private Random rand = new Random();
+	private int size;
+	/*
+	 * The key of slot i of a table lives at [2*i] and its value at
+	 * [2*i + 1]. Hash indices are the offset of the first key of a bucket.
+	 */
+	private long[] table1;
+	private long[] table2;
+	private final long noValue;
+	/*
+	 * The entry left over when tryInsert fails, for rebuild to place.
+	 */
+	private long homelessKey;
+	private long homelessValue;
+
+	/**
+	 * Create a map that returns 0 from get and remove for missing keys.
+	 *
+	 * @param startSize the number of slots to start with in each table
+	 */
+	public LongLongCuckooMap(int startSize) {
+		this(startSize, 0L);
+	}
+
+	/**
+	 * @param startSize the number of slots to start with in each table
+	 * @param noValue the value get and remove return when a key is missing
+	 */
+	public LongLongCuckooMap(int startSize, long noValue) {
+		this(startSize, noValue, new MurmurMixHash());
+	}
+
+	/**
+	 * @param startSize the number of slots to start with in each table
+	 * @param noValue the value get and remove return when a key is missing
+	 * @param hashFunction the hash family used to index both tables
+	 */
+	public LongLongCuckooMap(int startSize, long noValue, CuckooHashFunction hashFunction) {
+		if (startSize < 0 || hashFunction == null) {
+			throw new IllegalArgumentException();
+		}
+		this.noValue = noValue;
+		this.hashFunction = hashFunction;
+		int buckets = Math.max(1, (startSize + SLOTS - 1) / SLOTS);
+		allocate(32 - Integer.numberOfLeadingZeros(buckets - 1));
+	}
+
+	/**
+	 * Replace the tables with empty ones of 2^bits buckets and draw new
+	 * seeds for them.
+	 */
+	private void allocate(int bits) {
+		this.bits = bits;
+		table1 = new long[(SLOTS << bits) * 2];
+		table2 = new long[(SLOTS << bits) * 2];
+		Arrays.fill(table1, EMPTY_KEY);
+		Arrays.fill(table2, EMPTY_KEY);
+		seed1 = rand.nextLong() | 1L;
+		seed2 = rand.nextLong() | 1L;
+	}
+
+	private int getHashIndex1(long key) {
+		return hashFunction.index(key, seed1, bits) * SLOTS * 2;
+	}
+
+	private int getHashIndex2(long key) {
+		return hashFunction.index(key, seed2, bits) * SLOTS * 2;
+	}
+
+	/**
+	 * Passing EMPTY_KEY finds an empty slot.
+	 *
+	 * @return the offset of the key within the bucket starting at index, or -1
+	 */
+	private int findKey(long[] table, int index, long key) {
+		for (int slot = index; slot < index + SLOTS * 2; slot += 2) {
+			if (table[slot] == key) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private int capacity() {
+		return table1.length / 2;
+	}
+
+	/**
+	 * Associate the value with the key, replacing any previous value.
+	 *
+	 * Throw an IllegalArgumentException if the key is EMPTY_KEY.
+	 *
+	 * @return the previous value for the key, or noValue if there was none
+	 */
+	public long put(long key, long value) {
+		if (key == EMPTY_KEY) {
+			throw new IllegalArgumentException();
+		}
+		long oldValue;
+		int slot = findKey(table1, getHashIndex1(key), key);
+		if (slot >= 0) {
+			oldValue = table1[slot + 1];
+			table1[slot + 1] = value;
+			return oldValue;
+		}
+		slot = findKey(table2, getHashIndex2(key), key);
+		if (slot >= 0) {
+			oldValue = table2[slot + 1];
+			table2[slot + 1] = value;
+			return oldValue;
+		}
+		if ((double) (size + 1) / (capacity() * 2) > MAX_LOAD_FACTOR) {
+			rebuild(bits + 1, key, value);
+		} else if (!tryInsert(key, value)) {
+			rebuild(bits + 1, homelessKey, homelessValue);
+		}
+		size++;
+		return noValue;
+	}
+
+	/**
+	 * Place a key known to be absent in an empty slot of either bucket,
+	 * displacing a random resident of the two when both are full, for up
+	 * to MAX_KICKS residents.
+	 *
+	 * @return false if the kick limit was reached, leaving the entry the
+	 * loop was carrying, which need not be the one passed in, in
+	 * homelessKey and homelessValue
+	 */
+	private boolean tryInsert(long key, long value) {
+		int lastSlot = -1;
+		for (int kicks = 0; ; kicks++) {
+			int index1 = getHashIndex1(key);
+			int slot = findKey(table1, index1, EMPTY_KEY);
+			if (slot >= 0) {
+				table1[slot] = key;
+				table1[slot + 1] = value;
+				return true;
+			}
+			int index2 = getHashIndex2(key);
+			slot = findKey(table2, index2, EMPTY_KEY);
+			if (slot >= 0) {
+				table2[slot] = key;
+				table2[slot + 1] = value;
+				return true;
+			}
+			if (kicks == MAX_KICKS) {
+				homelessKey = key;
+				homelessValue = value;
+				return false;
+			}
+			// slots of table2 are encoded with the low bit set, as key offsets are even
+			int victim;
+			do {
+				int pick = rand.nextInt(SLOTS * 2);
+				victim = pick < SLOTS ? index1 + pick * 2 : (index2 + (pick - SLOTS) * 2) | 1;
+			} while (victim == lastSlot);
+			long[] table = (victim & 1) == 0 ? table1 : table2;
+			slot = victim & ~1;
+			long tempKey = table[slot];
+			long tempValue = table[slot + 1];
+			table[slot] = key;
+			table[slot + 1] = value;
+			key = tempKey;
+			value = tempValue;
+			lastSlot = victim;
+		}
+	}
+
+	/**
+	 * Move every entry, and the given one, into tables of 2^newBits
+	 * buckets. If an insert fails even so the pass starts over with tables
+	 * twice as large, so a rebuild never triggers another one.
+	 */
+	private void rebuild(int newBits, long key, long value) {
+		long[] from1 = table1;
+		long[] from2 = table2;
+		while (true) {
+			allocate(newBits);
+			if (reinsert(from1) && reinsert(from2) && tryInsert(key, value)) {
+				return;
+			}
+			newBits++;
+		}
+	}
+
+	/**
+	 * @return false as soon as an entry of the old table cannot be placed
+	 */
+	private boolean reinsert(long[] from) {
+		for (int i = 0; i < from.length; i += 2) {
+			if (from[i] != EMPTY_KEY && !tryInsert(from[i], from[i + 1])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the value for the key, or noValue if the key is not in the map
+	 */
+	public long get(long key) {
+		if (key == EMPTY_KEY) {
+			return noValue;
+		}
+		int slot = findKey(table1, getHashIndex1(key), key);
+		if (slot >= 0) {
+			return table1[slot + 1];
+		}
+		slot = findKey(table2, getHashIndex2(key), key);
+		if (slot >= 0) {
+			return table2[slot + 1];
+		}
+		return noValue;
+	}
+
+	/**
+	 * @return true if the key is found, false otherwise.
+	 */
+	public boolean containsKey(long key) {
+		if (key == EMPTY_KEY) {
+			return false;
+		}
+		return findKey(table1, getHashIndex1(key), key) >= 0
+				|| findKey(table2, getHashIndex2(key), key) >= 0;
+	}
+
+	/**
+	 * @return true if some key maps to the value, false otherwise.
+	 */
+	public boolean containsValue(long value) {
+		for (int i = 0; i < table1.length; i += 2) {
+			if (table1[i] != EMPTY_KEY && table1[i + 1] == value) {
+				return true;
+			}
+		}
+		for (int i = 0; i < table2.length; i += 2) {
+			if (table2[i] != EMPTY_KEY && table2[i + 1] == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Remove the entry for the key.
+	 *
+	 * @return the value that was removed, or noValue if the key was not found
+	 */
+	public long remove(long key) {
+		if (key == EMPTY_KEY) {
+			return noValue;
+		}
+		long[] table = table1;
+		int slot = findKey(table, getHashIndex1(key), key);
+		if (slot < 0) {
+			table = table2;
+			slot = findKey(table, getHashIndex2(key), key);
+		}
+		if (slot < 0) {
+			return noValue;
+		}
+		table[slot] = EMPTY_KEY;
+		size--;
+		return table[slot + 1];
+	}
+
+	/**
+	 * Call the procedure once for every entry in the map.
+	 */
+	public void forEach(LongLongProcedure procedure) {
+		for (int i = 0; i < table1.length; i += 2) {
+			if (table1[i] != EMPTY_KEY) {
+				procedure.apply(table1[i], table1[i + 1]);
+			}
+		}
+		for (int i = 0; i < table2.length; i += 2) {
+			if (table2[i] != EMPTY_KEY) {
+				procedure.apply(table2[i], table2[i + 1]);
+			}
+		}
+	}
+
+	/**
+	 * @return the value get and remove return for missing keys
+	 */
+	public long getNoValue() {
+		return noValue;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Remove every entry, keeping the current table size.
+	 */
+	public void clear() {
+		Arrays.fill(table1, EMPTY_KEY);
+		Arrays.fill(table2, EMPTY_KEY);
+		size = 0;
+	}
+}
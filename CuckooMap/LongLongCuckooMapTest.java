@@ -0,0 +1,132 @@
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * LongLongCuckooMap checked against a HashMap of boxed keys and values.
+ */
+public class LongLongCuckooMapTest {
+
+    private static final long NO_VALUE = -1L;
+
+    /**
+     * Random puts, removes and lookups, with keys spread over the whole
+     * long range as well as packed close together, checking every
+     * return value.
+     */
+    @Test
+    public void testMatchesHashMap() {
+        for (int seed = 0; seed < 5; seed++) {
+            LongLongCuckooMap map = new LongLongCuckooMap(2, NO_VALUE);
+            Map<Long, Long> expected = new HashMap<Long, Long>();
+            Random rand = new Random(seed);
+            long[] pool = new long[20000];
+            for (int i = 0; i < pool.length; i++) {
+                pool[i] = i % 2 == 0 ? rand.nextLong() : i << 32;
+            }
+            for (int i = 0; i < 50000; i++) {
+                long key = pool[rand.nextInt(pool.length)];
+                switch (rand.nextInt(4)) {
+                case 0:
+                    assertEquals("remove " + key, orNoValue(expected.remove(key)), map.remove(key));
+                    break;
+                case 1:
+                    assertEquals("get " + key, orNoValue(expected.get(key)), map.get(key));
+                    assertEquals(expected.containsKey(key), map.containsKey(key));
+                    break;
+                default:
+                    assertEquals("put " + key, orNoValue(expected.put(key, (long) i)), map.put(key, i));
+                }
+                assertEquals(expected.size(), map.size());
+            }
+            final Map<Long, Long> visited = new HashMap<Long, Long>();
+            map.forEach(new LongLongProcedure() {
+                public void apply(long key, long value) {
+                    assertNull("visited twice", visited.put(key, value));
+                }
+            });
+            assertEquals(expected, visited);
+        }
+    }
+
+    private static long orNoValue(Long value) {
+        return value == null ? NO_VALUE : value;
+    }
+
+    @Test
+    public void testDefaultNoValueIsZero() {
+        LongLongCuckooMap map = new LongLongCuckooMap(4);
+        assertEquals(0L, map.getNoValue());
+        assertEquals(0L, map.get(7));
+        assertEquals(0L, map.put(7, 3));
+        assertEquals(3L, map.remove(7));
+        assertEquals(0L, map.remove(7));
+    }
+
+    @Test
+    public void testContainsValueAndClear() {
+        LongLongCuckooMap map = new LongLongCuckooMap(4, NO_VALUE);
+        for (long i = 0; i < 1000; i++) {
+            map.put(i, i * 3);
+        }
+        assertTrue(map.containsValue(2997));
+        assertFalse(map.containsValue(2998));
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(1));
+        assertFalse(map.containsValue(3));
+    }
+
+    /**
+     * EMPTY_KEY marks free slots, so it can never be a key.
+     */
+    @Test
+    public void testEmptyKeyIsNeverFound() {
+        LongLongCuckooMap map = new LongLongCuckooMap(4, NO_VALUE);
+        assertEquals(NO_VALUE, map.get(LongLongCuckooMap.EMPTY_KEY));
+        assertFalse(map.containsKey(LongLongCuckooMap.EMPTY_KEY));
+        assertEquals(NO_VALUE, map.remove(LongLongCuckooMap.EMPTY_KEY));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPutEmptyKey() {
+        new LongLongCuckooMap(4).put(LongLongCuckooMap.EMPTY_KEY, 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeStartSize() {
+        new LongLongCuckooMap(-1);
+    }
+
+    /**
+     * Dense runs of keys are the common case for long IDs, and the one
+     * where a weak hash family packs keys into few buckets. Both families
+     * must still hold every key, at whatever size that takes.
+     */
+    @Test
+    public void testDenseKeysWithEachHashFunction() {
+        CuckooHashFunction[] functions = {new MurmurMixHash(), new MultiplyShiftHash()};
+        for (CuckooHashFunction function : functions) {
+            LongLongCuckooMap map = new LongLongCuckooMap(0, NO_VALUE, function);
+            for (long key = 0; key < 100000; key++) {
+                assertEquals(NO_VALUE, map.put(key, key * 2));
+            }
+            for (long key = 0; key < 100000; key += 2) {
+                assertEquals(key * 2, map.remove(key));
+            }
+            assertEquals(50000, map.size());
+            for (long key = 0; key < 100000; key++) {
+                assertEquals(key % 2 == 0 ? NO_VALUE : key * 2, map.get(key));
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNullHashFunction() {
+        new LongLongCuckooMap(4, NO_VALUE, null);
+    }
+}
@@ -0,0 +1,14 @@
+/**
+ * Callback used to walk the entries of a LongLongCuckooMap without boxing
+ * either the key or the value.
+ */
+public interface LongLongProcedure {
+	
+	/**
+	 * Called once for every entry in the map.
+	 * 
+	 * @param key the key of the entry
+	 * @param value the value of the entry
+	 */
+	void apply(long key, long value);
+}
@@ -0,0 +1,19 @@
+/**
+ * Multiply-shift hashing: the top bits of key * seed, for an odd random
+ * 64 bit seed, pick the bucket. A single multiply and shift with no
+ * division, and universal over the choice of seed.
+ *
+ * Universal is not enough for cuckoo hashing, though: on dense runs of
+ * keys, such as consecutive Integers, some seeds pack the keys into a few
+ * buckets of both tables and inserts fail at a low load. Only use it when
+ * the keys are known to be well spread.
+ */
+public class MultiplyShiftHash implements CuckooHashFunction {
+	
+	public int index(long key, long seed, int bits) {
+		if (bits == 0) {
+			return 0;
+		}
+		return (int) ((key * seed) >>> (64 - bits));
+	}
+}
@@ -0,0 +1,19 @@
+/**
+ * Hashing through the 64 bit finalizer of MurmurHash3. Every input bit
+ * affects every output bit, at the cost of two more multiplies than
+ * MultiplyShiftHash. The default for the maps, as it copes with
+ * structured hashCodes such as runs of consecutive Integers.
+ */
+public class MurmurMixHash implements CuckooHashFunction {
+	
+	public int index(long key, long seed, int bits) {
+		if (bits == 0) {
+			return 0;
+		}
+		long z = key ^ seed;
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = z ^ (z >>> 33);
+		return (int) (z >>> (64 - bits));
+	}
+}
@@ -0,0 +1,658 @@
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+/**
+ * A cuckoo hash map whose tables live outside the Java heap, so the garbage
+ * collector never scans or copies them however large they grow.
+ *
+ * Keys and values are byte arrays of fixed widths chosen at construction.
+ * Uses the bucketized two table displacement scheme of CuckooMap: each hash
+ * index names a bucket of CuckooMap.BUCKET_SLOTS adjacent slots, which
+ * lets the tables fill to .93 before they grow, against about .50 with one
+ * slot per index, so a table of a given number of entries needs little
+ * more than half the native memory. Each table is split into direct
+ * ByteBuffer chunks of at most 1 GB, which lets a table hold up to 2^31
+ * slots. A slot is a flag byte followed by the key and then the value; a
+ * zero flag marks it empty.
+ *
+ * Direct memory is limited by -XX:MaxDirectMemorySize, which defaults to
+ * the maximum heap size. Call release() to hand the memory back as soon as
+ * the map is no longer needed; the map cannot be used afterwards.
+ *
+ * writeSnapshot saves the tables and seeds to a file byte for byte, and
+ * load maps such a file straight back in, so a restarted process can serve
+ * lookups without reinserting anything.
+ */
+public class OffHeapCuckooMap {
+
+	private static final int SLOTS = CuckooMap.BUCKET_SLOTS;
+	private static final int SLOT_BITS = Integer.numberOfTrailingZeros(SLOTS);
+	private static final double MAX_LOAD_FACTOR = .93;
+	private static final int MAX_KICKS = 128;
+	/*
+	 * Slot indices are ints, so a table has at most 2^31 slots.
+	 */
+	private static final int MAX_BITS = 31 - SLOT_BITS;
+	private static final int MAX_CHUNK_BYTES = 1 << 30;
+	private static final byte OCCUPIED = 1;
+	/*
+	 * Snapshot files start with a HEADER_BYTES header: magic, version,
+	 * keyWidth, valueWidth, bits, chunkBits, seed1, seed2 and size. The
+	 * chunks of table1 and then table2 follow, exactly as held in memory.
+	 * Version 1 had one slot per bucket.
+	 */
+	private static final int SNAPSHOT_MAGIC = 0x43554b4f;
+	private static final int SNAPSHOT_VERSION = 2;
+	private static final int HEADER_BYTES = 64;
+
+	private final int keyWidth;
+	private final int valueWidth;
+	private final int slotBytes;
+	private final CuckooHashFunction hashFunction = new MurmurMixHash();
+	private Random rand = new Random();
+	private long seed1;
+	private long seed2;
+	/*
+	 * Each table has 2^bits buckets of SLOTS slots, in chunks of
+	 * 2^chunkBits slots. Hash indices are the index of the first slot of
+	 * a bucket.
+	 */
+	private int bits;
+	private int chunkBits;
+	private ByteBuffer[] table1;
+	private ByteBuffer[] table2;
+	/*
+	 * Whether the tables are a read-only mapping of a snapshot, to be
+	 * copied into direct memory before the first change.
+	 */
+	private boolean readOnly;
+	private long size;
+	/*
+	 * Scratch key/value pairs: entry carries the pair being inserted,
+	 * resident briefly holds the pair it displaces.
+	 */
+	private final byte[] entry;
+	private final byte[] resident;
+
+	/**
+	 * @param keyWidth the length in bytes of every key
+	 * @param valueWidth the length in bytes of every value
+	 * @param startSize the number of slots to start with in each table
+	 */
+	public OffHeapCuckooMap(int keyWidth, int valueWidth, long startSize) {
+		this(keyWidth, valueWidth);
+		if (startSize < 0) {
+			throw new IllegalArgumentException();
+		}
+		int bits = 0;
+		while (bits < MAX_BITS && ((long) SLOTS << bits) < startSize) {
+			bits++;
+		}
+		allocate(bits);
+	}
+
+	/**
+	 * Create a map without tables, for load to fill in.
+	 */
+	private OffHeapCuckooMap(int keyWidth, int valueWidth) {
+		if (keyWidth < 1 || valueWidth < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.keyWidth = keyWidth;
+		this.valueWidth = valueWidth;
+		// widths read from a snapshot header can be large enough to overflow
+		if (1L + keyWidth + valueWidth > MAX_CHUNK_BYTES) {
+			throw new IllegalArgumentException();
+		}
+		this.slotBytes = 1 + keyWidth + valueWidth;
+		entry = new byte[keyWidth + valueWidth];
+		resident = new byte[keyWidth + valueWidth];
+	}
+
+	private void allocate(int bits) {
+		int maxChunkBits = 31 - Integer.numberOfLeadingZeros(MAX_CHUNK_BYTES / slotBytes);
+		this.bits = bits;
+		this.chunkBits = Math.min(bits + SLOT_BITS, maxChunkBits);
+		table1 = allocateTable();
+		table2 = allocateTable();
+		readOnly = false;
+		seed1 = rand.nextLong() | 1L;
+		seed2 = rand.nextLong() | 1L;
+	}
+
+	/**
+	 * allocateDirect zeroes the memory, so every slot starts out empty.
+	 */
+	private ByteBuffer[] allocateTable() {
+		ByteBuffer[] table = new ByteBuffer[1 << (bits + SLOT_BITS - chunkBits)];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = ByteBuffer.allocateDirect((1 << chunkBits) * slotBytes);
+		}
+		return table;
+	}
+
+	/**
+	 * @return the chunk holding the slot at the index
+	 */
+	private ByteBuffer chunk(ByteBuffer[] table, int index) {
+		return table[index >>> chunkBits];
+	}
+
+	/**
+	 * @return the offset of the slot's flag byte within its chunk
+	 */
+	private int offset(int index) {
+		return (index & ((1 << chunkBits) - 1)) * slotBytes;
+	}
+
+	/**
+	 * FNV-1a over the key bytes; hashFunction mixes the result per table.
+	 */
+	private static long hash(byte[] key, int length) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < length; i++) {
+			h = (h ^ (key[i] & 0xff)) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	/**
+	 * @return the index of the first slot of the key's bucket in the table
+	 * seeded with seed
+	 */
+	private int getHashIndex(long hash, long seed) {
+		return hashFunction.index(hash, seed, bits) << SLOT_BITS;
+	}
+
+	/**
+	 * @return the number of slots in each table
+	 */
+	private long capacity() {
+		return (long) SLOTS << bits;
+	}
+
+	/**
+	 * @return true if the slot at the index is occupied by the key
+	 */
+	private boolean holds(ByteBuffer[] table, int index, byte[] key) {
+		ByteBuffer chunk = chunk(table, index);
+		int offset = offset(index);
+		if (chunk.get(offset) != OCCUPIED) {
+			return false;
+		}
+		for (int i = 0; i < keyWidth; i++) {
+			if (chunk.get(offset + 1 + i) != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of the key's slot in the bucket starting at index, or -1
+	 */
+	private int findKey(ByteBuffer[] table, int index, byte[] key) {
+		for (int slot = index; slot < index + SLOTS; slot++) {
+			if (holds(table, slot, key)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the index of the first empty slot in the bucket starting at index, or -1
+	 */
+	private int findEmpty(ByteBuffer[] table, int index) {
+		for (int slot = index; slot < index + SLOTS; slot++) {
+			if (chunk(table, slot).get(offset(slot)) != OCCUPIED) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private void checkKey(byte[] key) {
+		if (table1 == null) {
+			throw new IllegalStateException("released");
+		}
+		if (key == null || key.length != keyWidth) {
+			throw new IllegalArgumentException();
+		}
+	}
+
+	/**
+	 * Associate the value with the key, replacing any previous value.
+	 *
+	 * Throw an IllegalArgumentException if the key or value has the wrong
+	 * width.
+	 *
+	 * @return true if the key was not in the map before
+	 */
+	public boolean put(byte[] key, byte[] value) {
+		checkKey(key);
+		if (value == null || value.length != valueWidth) {
+			throw new IllegalArgumentException();
+		}
+		makeWritable();
+		long hash = hash(key, keyWidth);
+		int slot = findKey(table1, getHashIndex(hash, seed1), key);
+		if (slot >= 0) {
+			chunk(table1, slot).put(offset(slot) + 1 + keyWidth, value, 0, valueWidth);
+			return false;
+		}
+		slot = findKey(table2, getHashIndex(hash, seed2), key);
+		if (slot >= 0) {
+			chunk(table2, slot).put(offset(slot) + 1 + keyWidth, value, 0, valueWidth);
+			return false;
+		}
+		System.arraycopy(key, 0, entry, 0, keyWidth);
+		System.arraycopy(value, 0, entry, keyWidth, valueWidth);
+		if ((double) (size + 1) / (capacity() * 2) > MAX_LOAD_FACTOR || !tryInsert(entry)) {
+			rebuild(entry);
+		}
+		size++;
+		return true;
+	}
+
+	/**
+	 * Place a key/value pair whose key is known to be absent in an empty
+	 * slot of either bucket, displacing a random resident of the two when
+	 * both are full, for up to MAX_KICKS residents. The pair being carried
+	 * is kept in pair, which is overwritten.
+	 *
+	 * @return false if the kick limit was reached, leaving the pair still
+	 * to be placed, which need not be the one passed in, in pair
+	 */
+	private boolean tryInsert(byte[] pair) {
+		int lastSlot = -1;
+		boolean lastInTable2 = false;
+		for (int kicks = 0; ; kicks++) {
+			long hash = hash(pair, keyWidth);
+			int index1 = getHashIndex(hash, seed1);
+			int slot = findEmpty(table1, index1);
+			if (slot >= 0) {
+				swapIn(table1, slot, pair);
+				return true;
+			}
+			int index2 = getHashIndex(hash, seed2);
+			slot = findEmpty(table2, index2);
+			if (slot >= 0) {
+				swapIn(table2, slot, pair);
+				return true;
+			}
+			if (kicks == MAX_KICKS) {
+				return false;
+			}
+			boolean inTable2;
+			do {
+				int pick = rand.nextInt(SLOTS * 2);
+				inTable2 = pick >= SLOTS;
+				slot = inTable2 ? index2 + pick - SLOTS : index1 + pick;
+			} while (slot == lastSlot && inTable2 == lastInTable2);
+			swapIn(inTable2 ? table2 : table1, slot, pair);
+			lastSlot = slot;
+			lastInTable2 = inTable2;
+		}
+	}
+
+	/**
+	 * Write the pair into the slot at the index. If the slot was occupied
+	 * its previous pair is copied back into pair.
+	 *
+	 * @return true if the slot was empty
+	 */
+	private boolean swapIn(ByteBuffer[] table, int index, byte[] pair) {
+		ByteBuffer chunk = chunk(table, index);
+		int offset = offset(index);
+		boolean empty = chunk.get(offset) != OCCUPIED;
+		if (!empty) {
+			chunk.get(offset + 1, resident, 0, pair.length);
+		}
+		chunk.put(offset, OCCUPIED);
+		chunk.put(offset + 1, pair, 0, pair.length);
+		if (!empty) {
+			System.arraycopy(resident, 0, pair, 0, pair.length);
+		}
+		return empty;
+	}
+
+	/**
+	 * Move every entry, and the given pair, into tables with twice as many
+	 * buckets. If an insert fails even so the pass starts over with tables
+	 * twice as large again, so a rebuild never triggers another one. The
+	 * old tables are freed once every entry has been placed.
+	 */
+	private void rebuild(byte[] pair) {
+		ByteBuffer[] from1 = table1;
+		ByteBuffer[] from2 = table2;
+		int fromChunkBits = chunkBits;
+		byte[] homeless = pair.clone();
+		byte[] carried = new byte[pair.length];
+		int newBits = bits + 1;
+		while (true) {
+			if (newBits > MAX_BITS) {
+				throw new IllegalStateException("table size limit reached");
+			}
+			allocate(newBits);
+			System.arraycopy(homeless, 0, carried, 0, carried.length);
+			if (reinsert(from1, fromChunkBits, pair) && reinsert(from2, fromChunkBits, pair)
+					&& tryInsert(carried)) {
+				break;
+			}
+			free(table1);
+			free(table2);
+			newBits++;
+		}
+		free(from1);
+		free(from2);
+	}
+
+	/**
+	 * Insert every pair of an old table, using pair as scratch.
+	 *
+	 * @return false as soon as a pair cannot be placed
+	 */
+	private boolean reinsert(ByteBuffer[] oldTable, int oldChunkBits, byte[] pair) {
+		int slots = 1 << oldChunkBits;
+		for (ByteBuffer chunk : oldTable) {
+			for (int i = 0; i < slots; i++) {
+				int offset = i * slotBytes;
+				if (chunk.get(offset) == OCCUPIED) {
+					chunk.get(offset + 1, pair, 0, pair.length);
+					if (!tryInsert(pair)) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Copy the value for the key into out.
+	 *
+	 * @return true if the key was found, false otherwise (out is untouched)
+	 */
+	public boolean get(byte[] key, byte[] out) {
+		checkKey(key);
+		if (out == null || out.length < valueWidth) {
+			throw new IllegalArgumentException();
+		}
+		long hash = hash(key, keyWidth);
+		ByteBuffer[] table = table1;
+		int slot = findKey(table, getHashIndex(hash, seed1), key);
+		if (slot < 0) {
+			table = table2;
+			slot = findKey(table, getHashIndex(hash, seed2), key);
+		}
+		if (slot < 0) {
+			return false;
+		}
+		chunk(table, slot).get(offset(slot) + 1 + keyWidth, out, 0, valueWidth);
+		return true;
+	}
+
+	/**
+	 * @return true if the key is found, false otherwise.
+	 */
+	public boolean containsKey(byte[] key) {
+		checkKey(key);
+		long hash = hash(key, keyWidth);
+		return findKey(table1, getHashIndex(hash, seed1), key) >= 0
+				|| findKey(table2, getHashIndex(hash, seed2), key) >= 0;
+	}
+
+	/**
+	 * Remove the entry for the key.
+	 *
+	 * @return true if the key was found and removed
+	 */
+	public boolean remove(byte[] key) {
+		checkKey(key);
+		long hash = hash(key, keyWidth);
+		ByteBuffer[] table = table1;
+		int slot = findKey(table, getHashIndex(hash, seed1), key);
+		if (slot < 0) {
+			table = table2;
+			slot = findKey(table, getHashIndex(hash, seed2), key);
+		}
+		if (slot < 0) {
+			return false;
+		}
+		if (readOnly) {
+			boolean first = table == table1;
+			makeWritable();
+			table = first ? table1 : table2;
+		}
+		chunk(table, slot).put(offset(slot), (byte) 0);
+		size--;
+		return true;
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return the number of bytes of native memory held by the tables
+	 */
+	public long allocatedBytes() {
+		return capacity() * 2 * slotBytes;
+	}
+
+	/**
+	 * Remove every entry, keeping the current table size. Fresh zeroed
+	 * memory is cheaper to get than clearing the old tables byte by byte.
+	 */
+	public void clear() {
+		if (table1 == null) {
+			throw new IllegalStateException("released");
+		}
+		release();
+		allocate(bits);
+	}
+
+	/**
+	 * Free the native memory now instead of whenever the buffers happen to
+	 * be collected. Any later operation other than release throws an
+	 * IllegalStateException.
+	 */
+	public void release() {
+		if (table1 == null) {
+			return;
+		}
+		free(table1);
+		free(table2);
+		table1 = null;
+		table2 = null;
+		size = 0;
+	}
+
+	/**
+	 * Write the whole map to a file, replacing any existing one. The map
+	 * is not modified.
+	 */
+	public void writeSnapshot(Path file) throws IOException {
+		if (table1 == null) {
+			throw new IllegalStateException("released");
+		}
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+			header.putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION)
+					.putInt(keyWidth).putInt(valueWidth).putInt(bits).putInt(chunkBits)
+					.putLong(seed1).putLong(seed2).putLong(size);
+			header.clear();
+			writeFully(channel, header);
+			for (ByteBuffer chunk : table1) {
+				writeFully(channel, chunk.duplicate().clear());
+			}
+			for (ByteBuffer chunk : table2) {
+				writeFully(channel, chunk.duplicate().clear());
+			}
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Map a file written by writeSnapshot back into a working map. Nothing
+	 * is read up front: lookups page the tables in from the file as they
+	 * touch them. The mapping is private, so the first write to a page
+	 * copies it and the file itself never changes; a rehash moves the map
+	 * into direct memory. A file that cannot be opened for writing is
+	 * mapped read-only instead, and the first change copies the whole map
+	 * into direct memory. release() unmaps the file.
+	 *
+	 * Throw an IOException if the file is not a snapshot of this format.
+	 */
+	public static OffHeapCuckooMap load(Path file) throws IOException {
+		FileChannel channel;
+		try {
+			// a private mapping needs a writable channel even though the file stays untouched
+			channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		} catch (FileSystemException e) {
+			return loadReadOnly(file);
+		}
+		try (FileChannel writable = channel) {
+			return load(file, writable, false);
+		}
+	}
+
+	/**
+	 * Load without asking for write access, as load does when the file is
+	 * not writable.
+	 */
+	static OffHeapCuckooMap loadReadOnly(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return load(file, channel, true);
+		}
+	}
+
+	private static OffHeapCuckooMap load(Path file, FileChannel channel, boolean readOnly)
+			throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		while (header.hasRemaining() && channel.read(header) >= 0) {
+		}
+		header.flip();
+		if (header.remaining() < HEADER_BYTES || header.getInt() != SNAPSHOT_MAGIC
+				|| header.getInt() != SNAPSHOT_VERSION) {
+			throw new IOException("not a cuckoo map snapshot: " + file);
+		}
+		OffHeapCuckooMap map;
+		try {
+			map = new OffHeapCuckooMap(header.getInt(), header.getInt());
+		} catch (IllegalArgumentException e) {
+			throw new IOException("corrupt snapshot header: " + file, e);
+		}
+		map.bits = header.getInt();
+		map.chunkBits = header.getInt();
+		map.seed1 = header.getLong();
+		map.seed2 = header.getLong();
+		map.size = header.getLong();
+		if (map.bits < 0 || map.bits > MAX_BITS || map.chunkBits < 0
+				|| map.chunkBits > map.bits + SLOT_BITS
+				|| (long) map.slotBytes << map.chunkBits > MAX_CHUNK_BYTES
+				|| map.size < 0 || map.size > map.capacity() * 2) {
+			throw new IOException("corrupt snapshot header: " + file);
+		}
+		long chunkBytes = (long) map.slotBytes << map.chunkBits;
+		int chunks = 1 << (map.bits + SLOT_BITS - map.chunkBits);
+		if (channel.size() != HEADER_BYTES + chunkBytes * chunks * 2) {
+			throw new IOException("truncated snapshot: " + file);
+		}
+		FileChannel.MapMode mode = readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.PRIVATE;
+		long position = HEADER_BYTES;
+		map.table1 = new ByteBuffer[chunks];
+		map.table2 = new ByteBuffer[chunks];
+		for (ByteBuffer[] table : new ByteBuffer[][] {map.table1, map.table2}) {
+			for (int i = 0; i < chunks; i++) {
+				table[i] = channel.map(mode, position, chunkBytes);
+				position += chunkBytes;
+			}
+		}
+		map.readOnly = readOnly;
+		return map;
+	}
+
+	/**
+	 * Copy tables mapped read-only from a snapshot into direct memory, so
+	 * they can be written, and unmap the file.
+	 */
+	private void makeWritable() {
+		if (!readOnly) {
+			return;
+		}
+		table1 = copy(table1);
+		table2 = copy(table2);
+		readOnly = false;
+	}
+
+	private static ByteBuffer[] copy(ByteBuffer[] table) {
+		ByteBuffer[] copy = new ByteBuffer[table.length];
+		for (int i = 0; i < table.length; i++) {
+			copy[i] = ByteBuffer.allocateDirect(table[i].capacity());
+			copy[i].put(table[i].duplicate().clear()).clear();
+			free(table[i]);
+		}
+		return copy;
+	}
+
+	/*
+	 * The JDK has no public call that frees a direct buffer, but
+	 * sun.misc.Unsafe.invokeCleaner runs its cleaner immediately. If that
+	 * is unavailable the memory is freed when the buffer is collected.
+	 */
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> type = Class.forName("sun.misc.Unsafe");
+			Field field = type.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+			invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private static void free(ByteBuffer[] table) {
+		for (ByteBuffer chunk : table) {
+			free(chunk);
+		}
+	}
+
+	private static void free(ByteBuffer buffer) {
+		if (INVOKE_CLEANER == null) {
+			return;
+		}
+		try {
+			INVOKE_CLEANER.invoke(UNSAFE, buffer);
+		} catch (Exception e) {
+			// leave it to the garbage collector
+		}
+	}
+}
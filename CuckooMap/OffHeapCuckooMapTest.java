@@ -0,0 +1,330 @@
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * OffHeapCuckooMap checked against a HashMap, with long keys and int
+ * values packed into byte arrays.
+ */
+public class OffHeapCuckooMapTest {
+
+    private static byte[] key(long key) {
+        return ByteBuffer.allocate(8).putLong(key).array();
+    }
+
+    private static byte[] value(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    /**
+     * Apply random puts and removes to the map and to a HashMap, checking
+     * every return value.
+     * @return the reference the map should now equal
+     */
+    private static Map<Long, Integer> fill(OffHeapCuckooMap map, long seed, int operations, int keys) {
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        Random rand = new Random(seed);
+        for (int i = 0; i < operations; i++) {
+            long key = rand.nextInt(keys) * 0x9e3779b9L;
+            if (rand.nextInt(3) == 0) {
+                assertEquals("remove " + key, expected.remove(key) != null, map.remove(key(key)));
+            } else {
+                assertEquals("put " + key, expected.put(key, i) == null, map.put(key(key), value(i)));
+            }
+        }
+        return expected;
+    }
+
+    /**
+     * Check that the map holds exactly the expected entries, probing the
+     * keys that were removed or never added as well.
+     */
+    private static void checkEquals(Map<Long, Integer> expected, OffHeapCuckooMap map, int keys) {
+        assertEquals(expected.size(), map.size());
+        byte[] out = new byte[4];
+        for (int i = 0; i < keys; i++) {
+            long key = i * 0x9e3779b9L;
+            Integer value = expected.get(key);
+            assertEquals("get " + key, value != null, map.get(key(key), out));
+            assertEquals(value != null, map.containsKey(key(key)));
+            if (value != null) {
+                assertEquals(value.intValue(), ByteBuffer.wrap(out).getInt());
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        for (int seed = 0; seed < 3; seed++) {
+            OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 2);
+            try {
+                checkEquals(fill(map, seed, 50000, 20000), map, 20000);
+            } finally {
+                map.release();
+            }
+        }
+    }
+
+    @Test
+    public void testClear() {
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 16);
+        try {
+            fill(map, 1, 5000, 2000);
+            long bytes = map.allocatedBytes();
+            map.clear();
+            assertTrue(map.isEmpty());
+            assertEquals(bytes, map.allocatedBytes());
+            checkEquals(new HashMap<Long, Integer>(), map, 2000);
+            assertTrue(map.put(key(1), value(1)));
+            assertEquals(1, map.size());
+        } finally {
+            map.release();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongKeyWidth() {
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 16);
+        try {
+            map.put(new byte[7], value(1));
+        } finally {
+            map.release();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongValueWidth() {
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 16);
+        try {
+            map.put(key(1), new byte[5]);
+        } finally {
+            map.release();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUseAfterRelease() {
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 16);
+        map.release();
+        map.release();
+        map.containsKey(key(1));
+    }
+
+    /**
+     * A loaded snapshot answers like the map it was taken from, and keeps
+     * working as a map, rehashing included, without changing the file.
+     */
+    @Test
+    public void testSnapshotRoundTrip() throws IOException {
+        Path file = Files.createTempFile("cuckoo", ".snapshot");
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 2);
+        OffHeapCuckooMap loaded = null;
+        try {
+            Map<Long, Integer> expected = fill(map, 5, 20000, 10000);
+            map.writeSnapshot(file);
+            checkEquals(expected, map, 10000);
+            byte[] written = Files.readAllBytes(file);
+            loaded = OffHeapCuckooMap.load(file);
+            checkEquals(expected, loaded, 10000);
+
+            Random rand = new Random(6);
+            for (int i = 0; i < 20000; i++) {
+                long key = rand.nextInt(40000) * 0x9e3779b9L;
+                assertEquals(expected.put(key, -i) == null, loaded.put(key(key), value(-i)));
+            }
+            checkEquals(expected, loaded, 40000);
+            assertArrayEquals(written, Files.readAllBytes(file));
+        } finally {
+            map.release();
+            if (loaded != null) {
+                loaded.release();
+            }
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testSnapshotOfEmptyMap() throws IOException {
+        Path file = Files.createTempFile("cuckoo", ".snapshot");
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 16);
+        OffHeapCuckooMap loaded = null;
+        try {
+            map.writeSnapshot(file);
+            loaded = OffHeapCuckooMap.load(file);
+            assertTrue(loaded.isEmpty());
+            assertFalse(loaded.containsKey(key(3)));
+        } finally {
+            map.release();
+            if (loaded != null) {
+                loaded.release();
+            }
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadRejectsOtherFiles() throws IOException {
+        Path file = Files.createTempFile("cuckoo", ".snapshot");
+        try {
+            Files.write(file, new byte[100]);
+            OffHeapCuckooMap.load(file);
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testLoadRejectsTruncatedSnapshot() throws IOException {
+        Path file = Files.createTempFile("cuckoo", ".snapshot");
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 16);
+        try {
+            map.put(key(1), value(1));
+            map.writeSnapshot(file);
+            byte[] written = Files.readAllBytes(file);
+            Files.write(file, Arrays.copyOf(written, written.length - 1));
+            OffHeapCuckooMap.load(file);
+        } finally {
+            map.release();
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * The bucketized tables grow only past .93 load, so a map that has
+     * grown to hold its entries is always well over half full, where one
+     * slot per index would need twice the memory.
+     */
+    @Test
+    public void testBucketizedTablesStayDense() {
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 0);
+        try {
+            int slotBytes = 1 + 8 + 4;
+            for (int i = 0; i < 100000; i++) {
+                map.put(key(i), value(i));
+            }
+            double load = (double) map.size() * slotBytes / map.allocatedBytes();
+            assertTrue("load " + load, load > .6);
+        } finally {
+            map.release();
+        }
+    }
+
+    /**
+     * A snapshot that cannot be opened for writing is mapped read-only;
+     * the first change copies the map into direct memory and leaves the
+     * file alone.
+     */
+    @Test
+    public void testLoadReadOnlySnapshot() throws IOException {
+        Path file = Files.createTempFile("cuckoo", ".snapshot");
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 2);
+        OffHeapCuckooMap loaded = null;
+        OffHeapCuckooMap readOnly = null;
+        try {
+            Map<Long, Integer> expected = fill(map, 7, 20000, 10000);
+            map.writeSnapshot(file);
+            byte[] written = Files.readAllBytes(file);
+            // root may still open it for writing, so loadReadOnly covers the fallback either way
+            assertTrue(file.toFile().setWritable(false));
+            loaded = OffHeapCuckooMap.load(file);
+            checkEquals(expected, loaded, 10000);
+            readOnly = OffHeapCuckooMap.loadReadOnly(file);
+            checkEquals(expected, readOnly, 10000);
+
+            Random rand = new Random(8);
+            for (int i = 0; i < 5000; i++) {
+                long key = rand.nextInt(10000) * 0x9e3779b9L;
+                if (i % 2 == 0) {
+                    assertEquals(expected.remove(key) != null, readOnly.remove(key(key)));
+                } else {
+                    assertEquals(expected.put(key, -i) == null, readOnly.put(key(key), value(-i)));
+                }
+            }
+            checkEquals(expected, readOnly, 10000);
+            assertArrayEquals(written, Files.readAllBytes(file));
+        } finally {
+            map.release();
+            if (loaded != null) {
+                loaded.release();
+            }
+            if (readOnly != null) {
+                readOnly.release();
+            }
+            file.toFile().setWritable(true);
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * A removal is the first change of a read-only map as well.
+     */
+    @Test
+    public void testRemoveFromReadOnlySnapshot() throws IOException {
+        Path file = Files.createTempFile("cuckoo", ".snapshot");
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 16);
+        OffHeapCuckooMap loaded = null;
+        try {
+            Map<Long, Integer> expected = fill(map, 9, 100, 50);
+            map.writeSnapshot(file);
+            loaded = OffHeapCuckooMap.loadReadOnly(file);
+            for (long key : expected.keySet()) {
+                assertTrue(loaded.remove(key(key)));
+            }
+            expected.clear();
+            checkEquals(expected, loaded, 50);
+        } finally {
+            map.release();
+            if (loaded != null) {
+                loaded.release();
+            }
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Every header field that would size or index the tables wrongly is
+     * rejected with an IOException before anything is mapped.
+     */
+    @Test
+    public void testLoadRejectsCorruptHeader() throws IOException {
+        Path file = Files.createTempFile("cuckoo", ".snapshot");
+        OffHeapCuckooMap map = new OffHeapCuckooMap(8, 4, 16);
+        try {
+            map.put(key(1), value(1));
+            map.writeSnapshot(file);
+            byte[] written = Files.readAllBytes(file);
+            // header offsets: keyWidth 8, valueWidth 12, bits 16, chunkBits 20, size 40
+            int[][] corruptions = {
+                {8, 0}, {8, -1}, {8, Integer.MAX_VALUE}, {12, -1}, {12, Integer.MAX_VALUE},
+                {16, -1}, {16, 40}, {20, -1}, {20, 31}, {40, -1}, {44, -1},
+            };
+            for (int[] corruption : corruptions) {
+                ByteBuffer header = ByteBuffer.wrap(written.clone());
+                if (corruption[0] == 40) {
+                    header.putLong(40, corruption[1]);
+                } else {
+                    header.putInt(corruption[0], corruption[1]);
+                }
+                Files.write(file, header.array());
+                try {
+                    OffHeapCuckooMap.load(file).release();
+                    fail("loaded with " + corruption[1] + " at offset " + corruption[0]);
+                } catch (IOException e) {
+                    // expected
+                }
+            }
+        } finally {
+            map.release();
+            Files.delete(file);
+        }
+    }
+}
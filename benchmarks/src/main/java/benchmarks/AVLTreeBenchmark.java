@@ -0,0 +1,126 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * add, contains and remove on AVLTree against TreeMap. add and remove undo
+ * themselves as in CuckooMapBenchmark, so the tree keeps its size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AVLTreeBenchmark {
+
+	@Param({"AVLTree", "TreeMap"})
+	public String implementation;
+
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	@Param({"uniform", "zipf"})
+	public String distribution;
+
+	@Param({"1.0", "0.5"})
+	public double hitRatio;
+
+	/**
+	 * The three operations of either implementation.
+	 */
+	private interface Tree {
+		boolean add(Long key) throws Throwable;
+
+		boolean contains(Long key) throws Throwable;
+
+		boolean remove(Long key) throws Throwable;
+	}
+
+	private Tree tree;
+	private Long[] probes;
+	private int next;
+
+	@Setup
+	public void setUp() throws Throwable {
+		Workload workload = new Workload(size, distribution, hitRatio, 42);
+		if (implementation.equals("TreeMap")) {
+			final TreeMap<Long, Boolean> map = new TreeMap<Long, Boolean>();
+			tree = new Tree() {
+				public boolean add(Long key) {
+					return map.put(key, Boolean.TRUE) == null;
+				}
+
+				public boolean contains(Long key) {
+					return map.containsKey(key);
+				}
+
+				public boolean remove(Long key) {
+					return map.remove(key) != null;
+				}
+			};
+		} else {
+			final Object avl = Structures.create(implementation);
+			Class<?> type = avl.getClass();
+			MethodType operation = MethodType.methodType(boolean.class, Object.class, Long.class);
+			final MethodHandle add = Structures.method(type, "add", operation);
+			final MethodHandle contains = Structures.method(type, "contains", operation);
+			final MethodHandle remove = Structures.method(type, "remove", operation);
+			tree = new Tree() {
+				public boolean add(Long key) throws Throwable {
+					return (boolean) add.invokeExact(avl, key);
+				}
+
+				public boolean contains(Long key) throws Throwable {
+					return (boolean) contains.invokeExact(avl, key);
+				}
+
+				public boolean remove(Long key) throws Throwable {
+					return (boolean) remove.invokeExact(avl, key);
+				}
+			};
+		}
+		for (Long key : workload.keys) {
+			tree.add(key);
+		}
+		probes = workload.probes;
+	}
+
+	private Long probe() {
+		return probes[next++ & (Workload.PROBES - 1)];
+	}
+
+	@Benchmark
+	public boolean add() throws Throwable {
+		Long key = probe();
+		boolean added = tree.add(key);
+		if (added) {
+			tree.remove(key);
+		}
+		return added;
+	}
+
+	@Benchmark
+	public boolean contains() throws Throwable {
+		return tree.contains(probe());
+	}
+
+	@Benchmark
+	public boolean remove() throws Throwable {
+		Long key = probe();
+		boolean removed = tree.remove(key);
+		if (removed) {
+			tree.add(key);
+		}
+		return removed;
+	}
+}
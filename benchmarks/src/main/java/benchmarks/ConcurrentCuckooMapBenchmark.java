@@ -0,0 +1,67 @@
+package benchmarks;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of ConcurrentCuckooMap against ConcurrentHashMap under a
+ * shared map. Run once per thread count to see how each scales, e.g.
+ *
+ *   java -jar benchmarks.jar ConcurrentCuckooMapBenchmark -t 1
+ *   java -jar benchmarks.jar ConcurrentCuckooMapBenchmark -t 32
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConcurrentCuckooMapBenchmark {
+
+	@Param({"ConcurrentCuckooMap", "ConcurrentHashMap"})
+	public String implementation;
+
+	@Param({"1000000"})
+	public int size;
+
+	/** Percentage of operations that are puts, the rest are gets. */
+	@Param({"0", "10", "50"})
+	public int writePercent;
+
+	private ConcurrentMap<Long, Long> map;
+	private Long[] keys;
+
+	@Setup
+	public void setUp() {
+		if (implementation.equals("ConcurrentHashMap")) {
+			map = new ConcurrentHashMap<Long, Long>(16);
+		} else {
+			map = Structures.create(implementation, 16);
+		}
+		keys = new Long[size * 2];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = ThreadLocalRandom.current().nextLong();
+		}
+		for (int i = 0; i < size; i++) {
+			map.put(keys[i], keys[i]);
+		}
+	}
+
+	@Benchmark
+	public Long mixed() {
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		Long key = keys[rand.nextInt(keys.length)];
+		if (rand.nextInt(100) < writePercent) {
+			return map.put(key, key);
+		}
+		return map.get(key);
+	}
+}
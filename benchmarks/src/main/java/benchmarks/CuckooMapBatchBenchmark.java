@@ -0,0 +1,96 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Throughput of CuckooMap.getAll and putAll(K[], V[]) against calling get
+ * or put once per key, over a map large enough that most probes miss the
+ * cache. The puts replace the values of keys already in the map, so the
+ * map does not grow while it is measured. Scores are per key so batched
+ * and per key runs are directly comparable.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@OperationsPerInvocation(CuckooMapBatchBenchmark.BATCH)
+public class CuckooMapBatchBenchmark {
+
+	static final int BATCH = 4096;
+
+	@Param({"1000000"})
+	public int size;
+
+	private Map<Long, Long> map;
+	private MethodHandle getAll;
+	private MethodHandle putAll;
+	private Long[][] batches;
+	private Long[] out = new Long[BATCH];
+	private int next;
+
+	@Setup
+	public void setUp() {
+		map = Structures.create("CuckooMap", 16);
+		Random rand = new Random(42);
+		Long[] keys = new Long[size];
+		for (int i = 0; i < size; i++) {
+			keys[i] = rand.nextLong();
+			map.put(keys[i], keys[i]);
+		}
+		batches = new Long[64][BATCH];
+		for (Long[] batch : batches) {
+			for (int i = 0; i < BATCH; i++) {
+				batch[i] = keys[rand.nextInt(size)];
+			}
+		}
+		getAll = Structures.method(Structures.type("CuckooMap"), "getAll",
+				MethodType.methodType(void.class, Map.class, Long[].class, Long[].class));
+		putAll = Structures.method(Structures.type("CuckooMap"), "putAll",
+				MethodType.methodType(void.class, Map.class, Long[].class, Long[].class));
+	}
+
+	@Benchmark
+	public Long[] batchedGet() throws Throwable {
+		Long[] keys = batches[next++ & (batches.length - 1)];
+		getAll.invokeExact(map, keys, out);
+		return out;
+	}
+
+	@Benchmark
+	public Long[] perKeyGet() {
+		Long[] keys = batches[next++ & (batches.length - 1)];
+		for (int i = 0; i < keys.length; i++) {
+			out[i] = map.get(keys[i]);
+		}
+		return out;
+	}
+
+	@Benchmark
+	public Map<Long, Long> batchedPut() throws Throwable {
+		Long[] keys = batches[next++ & (batches.length - 1)];
+		putAll.invokeExact(map, keys, keys);
+		return map;
+	}
+
+	@Benchmark
+	public Map<Long, Long> perKeyPut() {
+		Long[] keys = batches[next++ & (batches.length - 1)];
+		for (int i = 0; i < keys.length; i++) {
+			map.put(keys[i], keys[i]);
+		}
+		return map;
+	}
+}
@@ -0,0 +1,84 @@
+package benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * get, put and remove on CuckooMap against HashMap. put and remove each
+ * undo themselves, so the map keeps its size: a put that inserted is
+ * followed by a remove, and a remove that hit by putting the key back.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CuckooMapBenchmark {
+
+	@Param({"CuckooMap", "HashMap"})
+	public String implementation;
+
+	@Param({"1000", "100000", "1000000"})
+	public int size;
+
+	@Param({"uniform", "zipf"})
+	public String distribution;
+
+	@Param({"1.0", "0.5"})
+	public double hitRatio;
+
+	private Map<Long, Long> map;
+	private Long[] probes;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		Workload workload = new Workload(size, distribution, hitRatio, 42);
+		if (implementation.equals("HashMap")) {
+			map = new HashMap<Long, Long>();
+		} else {
+			map = Structures.create(implementation, 16);
+		}
+		for (Long key : workload.keys) {
+			map.put(key, key);
+		}
+		probes = workload.probes;
+	}
+
+	private Long probe() {
+		return probes[next++ & (Workload.PROBES - 1)];
+	}
+
+	@Benchmark
+	public Long get() {
+		return map.get(probe());
+	}
+
+	@Benchmark
+	public Long put() {
+		Long key = probe();
+		Long old = map.put(key, key);
+		if (old == null) {
+			map.remove(key);
+		}
+		return old;
+	}
+
+	@Benchmark
+	public Long remove() {
+		Long key = probe();
+		Long old = map.remove(key);
+		if (old != null) {
+			map.put(key, old);
+		}
+		return old;
+	}
+}
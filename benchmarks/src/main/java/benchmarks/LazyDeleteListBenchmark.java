@@ -0,0 +1,171 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * add, remove, contains and compress on LazyDeleteLinkedList against
+ * ArrayList and LinkedList. Every operation but add scans the list, so the
+ * sizes are smaller than for the maps and trees.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LazyDeleteListBenchmark {
+
+	@Param({"LazyDeleteLinkedList", "ArrayList", "LinkedList"})
+	public String implementation;
+
+	@Param({"100", "1000", "10000"})
+	public int size;
+
+	@Param({"uniform", "zipf"})
+	public String distribution;
+
+	@Param({"1.0", "0.5"})
+	public double hitRatio;
+
+	/**
+	 * The operations of either kind of list. The java.util lists delete
+	 * eagerly, so compress does nothing for them.
+	 */
+	private interface Ops {
+		void add(Long item) throws Throwable;
+
+		boolean contains(Long item) throws Throwable;
+
+		boolean remove(Long item) throws Throwable;
+
+		int compress() throws Throwable;
+	}
+
+	private Workload workload;
+	private Ops list;
+	private int next;
+
+	@Setup
+	public void setUp() throws Throwable {
+		workload = new Workload(size, distribution, hitRatio, 42);
+		list = fill();
+	}
+
+	/**
+	 * A fresh list holding every loaded key.
+	 */
+	private Ops fill() throws Throwable {
+		Ops ops;
+		if (implementation.equals("LazyDeleteLinkedList")) {
+			final Object lazy = Structures.create(implementation);
+			Class<?> type = lazy.getClass();
+			MethodType test = MethodType.methodType(boolean.class, Object.class, Long.class);
+			final MethodHandle add = Structures.method(type, "add",
+					MethodType.methodType(void.class, Object.class, Long.class));
+			final MethodHandle contains = Structures.method(type, "contains", test);
+			final MethodHandle remove = Structures.method(type, "remove", test);
+			final MethodHandle compress = Structures.method(type, "compress",
+					MethodType.methodType(int.class, Object.class));
+			ops = new Ops() {
+				public void add(Long item) throws Throwable {
+					add.invokeExact(lazy, item);
+				}
+
+				public boolean contains(Long item) throws Throwable {
+					return (boolean) contains.invokeExact(lazy, item);
+				}
+
+				public boolean remove(Long item) throws Throwable {
+					return (boolean) remove.invokeExact(lazy, item);
+				}
+
+				public int compress() throws Throwable {
+					return (int) compress.invokeExact(lazy);
+				}
+			};
+		} else {
+			final List<Long> eager = implementation.equals("ArrayList")
+					? new ArrayList<Long>() : new LinkedList<Long>();
+			ops = new Ops() {
+				public void add(Long item) {
+					eager.add(item);
+				}
+
+				public boolean contains(Long item) {
+					return eager.contains(item);
+				}
+
+				public boolean remove(Long item) {
+					return eager.remove(item);
+				}
+
+				public int compress() {
+					return 0;
+				}
+			};
+		}
+		for (Long key : workload.keys) {
+			ops.add(key);
+		}
+		return ops;
+	}
+
+	private Long probe() {
+		return workload.probes[next++ & (Workload.PROBES - 1)];
+	}
+
+	/**
+	 * Add a key and remove it again, which for LazyDeleteLinkedList reuses
+	 * the node the remove frees.
+	 */
+	@Benchmark
+	public boolean addRemove() throws Throwable {
+		Long key = probe();
+		list.add(key);
+		return list.remove(key);
+	}
+
+	@Benchmark
+	public boolean contains() throws Throwable {
+		return list.contains(probe());
+	}
+
+	/**
+	 * A list refilled before every call, for compress to work on.
+	 */
+	@State(Scope.Thread)
+	public static class Filled {
+
+		Ops list;
+
+		@Setup(Level.Invocation)
+		public void setUp(LazyDeleteListBenchmark benchmark) throws Throwable {
+			list = benchmark.fill();
+		}
+	}
+
+	/**
+	 * Remove every other loaded key and then compress, so the lazy list
+	 * pays for its deletions in one pass where the others pay per remove.
+	 */
+	@Benchmark
+	public int removeAndCompress(Filled filled) throws Throwable {
+		Long[] keys = workload.keys;
+		for (int i = 0; i < keys.length; i += 2) {
+			filled.list.remove(keys[i]);
+		}
+		return filled.list.compress();
+	}
+}
@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The data structures live in the default package, which cannot be imported
+ * from a named one, and JMH refuses benchmarks in the default package. The
+ * benchmarks therefore create them reflectively here and use them through
+ * java.util interfaces or method handles.
+ */
+final class Structures {
+
+	private Structures() {
+	}
+
+	static Class<?> type(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Call the constructor of a default package class that takes a single
+	 * int argument.
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T create(String name, int size) {
+		try {
+			return (T) type(name).getConstructor(int.class).newInstance(size);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		} catch (InstantiationException e) {
+			throw new IllegalStateException(e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Call the no argument constructor of a default package class.
+	 */
+	static Object create(String name) {
+		try {
+			return type(name).getConstructor().newInstance();
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException(e);
+		} catch (InstantiationException e) {
+			throw new IllegalStateException(e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	/**
+	 * Find a public method by name and number of arguments, whatever its
+	 * parameters erase to, and adapt it to the given type, whose first
+	 * parameter is the receiver.
+	 */
+	static MethodHandle method(Class<?> type, String name, MethodType as) {
+		for (Method method : type.getMethods()) {
+			if (method.getName().equals(name) && method.getParameterCount() == as.parameterCount() - 1) {
+				try {
+					return MethodHandles.publicLookup().unreflect(method).asType(as);
+				} catch (IllegalAccessException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+		throw new IllegalStateException("no method " + type.getName() + "." + name);
+	}
+}
@@ -0,0 +1,86 @@
+package benchmarks;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * The keys a benchmark loads and the sequence of keys it then operates on.
+ * A fraction hitRatio of the probes are loaded keys, picked uniformly or by
+ * a Zipf distribution over a random ranking of the loaded keys; the rest
+ * are keys that were never loaded. Everything is generated in setup so the
+ * measured loop only indexes an array.
+ */
+final class Workload {
+
+	/** Number of probes, a power of two so the loop can mask its index. */
+	static final int PROBES = 1 << 16;
+	private static final double ZIPF_EXPONENT = 0.99;
+
+	final Long[] keys;
+	final Long[] probes;
+
+	/**
+	 * @param size the number of keys to load
+	 * @param distribution "uniform" or "zipf"
+	 * @param hitRatio the fraction of probes that are loaded keys
+	 */
+	Workload(int size, String distribution, double hitRatio, long seed) {
+		Random rand = new Random(seed);
+		Set<Long> loaded = new HashSet<Long>();
+		keys = new Long[size];
+		for (int i = 0; i < size; i++) {
+			Long key;
+			do {
+				key = rand.nextLong();
+			} while (!loaded.add(key));
+			keys[i] = key;
+		}
+		double[] cdf = distribution.equals("zipf") ? zipfCdf(size) : null;
+		if (cdf == null && !distribution.equals("uniform")) {
+			throw new IllegalArgumentException(distribution);
+		}
+		probes = new Long[PROBES];
+		for (int i = 0; i < PROBES; i++) {
+			if (rand.nextDouble() < hitRatio) {
+				probes[i] = keys[cdf == null ? rand.nextInt(size) : sample(cdf, rand.nextDouble())];
+			} else {
+				Long key;
+				do {
+					key = rand.nextLong();
+				} while (loaded.contains(key));
+				probes[i] = key;
+			}
+		}
+	}
+
+	private static double[] zipfCdf(int size) {
+		double[] cdf = new double[size];
+		double sum = 0;
+		for (int rank = 0; rank < size; rank++) {
+			sum += 1 / Math.pow(rank + 1, ZIPF_EXPONENT);
+			cdf[rank] = sum;
+		}
+		for (int rank = 0; rank < size; rank++) {
+			cdf[rank] /= sum;
+		}
+		return cdf;
+	}
+
+	/**
+	 * @return the first rank whose cumulative probability reaches u
+	 */
+	private static int sample(double[] cdf, double u) {
+		int low = 0;
+		int high = cdf.length - 1;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (cdf[middle] < u) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}